@@ -0,0 +1,295 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.rdf;
+
+import static eu.scape_project.rdf.ScapeRDFVocabulary.prefix;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+
+/**
+ * Accessors for the {@link ScapeRDFVocabulary} properties of a JCR
+ * {@link Node}. The properties are read and written straight from and to the
+ * node instead of materializing the node's RDF dataset or running SPARQL
+ * updates against it. Like Fedora, properties which are not explicitly defined
+ * by one of the node's types are written as multi valued properties
+ *
+ * @author frank asseg
+ *
+ */
+public final class ScapeNodeProperties {
+
+    private ScapeNodeProperties() {
+        super();
+    }
+
+    /**
+     * Read the first value of a scape property
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_TITLE}
+     * @return the first value of the property
+     * @throws RepositoryException
+     *             if the property does not exist or could not be read
+     */
+    public static String getFirstString(final Node node, final String property) throws RepositoryException {
+        final Property p = node.getProperty(prefix(property));
+        if (p.isMultiple()) {
+            final Value[] values = p.getValues();
+            if (values.length == 0) {
+                throw new RepositoryException("Property " + prefix(property) + " of " + node.getPath() + " has no value");
+            }
+            return values[0].getString();
+        }
+        return p.getString();
+    }
+
+    /**
+     * Read all the values of a scape property
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_FILE}
+     * @return a {@link List} containing the property's values or an empty
+     *         {@link List} if the property does not exist
+     * @throws RepositoryException
+     *             if the property could not be read
+     */
+    public static List<String> getStrings(final Node node, final String property) throws RepositoryException {
+        if (!node.hasProperty(prefix(property))) {
+            return Collections.emptyList();
+        }
+        final Property p = node.getProperty(prefix(property));
+        if (!p.isMultiple()) {
+            return Collections.singletonList(p.getString());
+        }
+        final Value[] values = p.getValues();
+        final List<String> result = new ArrayList<>(values.length);
+        for (Value v : values) {
+            result.add(v.getString());
+        }
+        return result;
+    }
+
+    /**
+     * Read the first value of a scape property referencing another object in
+     * the repository and convert it to a repository path
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_CURRENT_VERSION}
+     * @return the path of the referenced object
+     * @throws RepositoryException
+     *             if the property does not exist or could not be read
+     */
+    public static String getPath(final Node node, final String property) throws RepositoryException {
+        return toPath(getFirstString(node, property));
+    }
+
+    /**
+     * Read all the values of a scape property referencing other objects in the
+     * repository and convert them to repository paths
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_REPRESENTATION}
+     * @return a {@link List} containing the paths of the referenced objects
+     * @throws RepositoryException
+     *             if the property could not be read
+     */
+    public static List<String> getPaths(final Node node, final String property) throws RepositoryException {
+        final List<String> uris = getStrings(node, property);
+        final List<String> paths = new ArrayList<>(uris.size());
+        for (String uri : uris) {
+            paths.add(toPath(uri));
+        }
+        return paths;
+    }
+
+    /**
+     * Set the value of a scape property, replacing all existing values
+     *
+     * @param node
+     *            the {@link Node} to write to
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_TYPE}
+     * @param value
+     *            the value to set
+     * @throws RepositoryException
+     *             if the property could not be written
+     */
+    public static void setString(final Node node, final String property, final String value) throws RepositoryException {
+        final String name = prefix(property);
+        if (isMultiple(node, name)) {
+            node.setProperty(name, new String[] { value });
+        } else {
+            node.setProperty(name, value);
+        }
+    }
+
+    /**
+     * Set the values of a scape property, replacing all existing values
+     *
+     * @param node
+     *            the {@link Node} to write to
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_FILE}
+     * @param values
+     *            the values to set
+     * @throws RepositoryException
+     *             if the property could not be written
+     */
+    public static void setStrings(final Node node, final String property, final Collection<String> values) throws RepositoryException {
+        if (values.isEmpty()) {
+            return;
+        }
+        node.setProperty(prefix(property), values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * Add a value to a multi valued scape property
+     *
+     * @param node
+     *            the {@link Node} to write to
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_VERSION}
+     * @param value
+     *            the value to add
+     * @throws RepositoryException
+     *             if the property could not be written
+     */
+    public static void addString(final Node node, final String property, final String value) throws RepositoryException {
+        final List<String> values = new ArrayList<>(getStrings(node, property));
+        values.add(value);
+        setStrings(node, property, values);
+    }
+
+    /**
+     * Remove a value from a multi valued scape property. The property is
+     * removed if no value remains
+     *
+     * @param node
+     *            the {@link Node} to write to
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_ITEM}
+     * @param value
+     *            the value to remove
+     * @throws RepositoryException
+     *             if the property could not be written
+     */
+    public static void removeString(final Node node, final String property, final String value) throws RepositoryException {
+        final List<String> values = new ArrayList<>(getStrings(node, property));
+        if (!values.remove(value)) {
+            return;
+        }
+        if (values.isEmpty()) {
+            node.getProperty(prefix(property)).remove();
+        } else {
+            setStrings(node, property, values);
+        }
+    }
+
+    /**
+     * Remove a scape property and all of its values
+     *
+     * @param node
+     *            the {@link Node} to write to
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_INGEST_OWNER}
+     * @throws RepositoryException
+     *             if the property could not be removed
+     */
+    public static void removeProperty(final Node node, final String property) throws RepositoryException {
+        if (node.hasProperty(prefix(property))) {
+            node.getProperty(prefix(property)).remove();
+        }
+    }
+
+    /**
+     * Set the value of a single valued scape property referencing another
+     * object in the repository
+     *
+     * @param node
+     *            the {@link Node} to write to
+     * @param property
+     *            the name of the property without prefix, e.g.
+     *            {@link ScapeRDFVocabulary#HAS_CURRENT_VERSION}
+     * @param uri
+     *            the subject URI of the referenced object
+     * @throws RepositoryException
+     *             if the property could not be written
+     */
+    public static void setUri(final Node node, final String property, final String uri) throws RepositoryException {
+        node.setProperty(prefix(property), uri, PropertyType.URI);
+    }
+
+    /**
+     * Convert a subject URI like <code>info:fedora/objects/scape/...</code>
+     * to a repository path
+     *
+     * @param uri
+     *            the subject URI
+     * @return the repository path
+     */
+    public static String toPath(final String uri) {
+        return uri.substring(uri.indexOf('/'));
+    }
+
+    private static boolean isMultiple(final Node node, final String name) throws RepositoryException {
+        final PropertyDefinition def = findDefinition(node.getPrimaryNodeType(), name);
+        if (def != null) {
+            return def.isMultiple();
+        }
+        for (NodeType mixin : node.getMixinNodeTypes()) {
+            final PropertyDefinition mixinDef = findDefinition(mixin, name);
+            if (mixinDef != null) {
+                return mixinDef.isMultiple();
+            }
+        }
+        return true;
+    }
+
+    private static PropertyDefinition findDefinition(final NodeType type, final String name) {
+        for (PropertyDefinition def : type.getPropertyDefinitions()) {
+            if (def.getName().equals(name)) {
+                return def;
+            }
+        }
+        return null;
+    }
+}
@@ -62,6 +62,20 @@ public final class  ScapeRDFVocabulary {
 
     public static final String HAS_INGEST_STATE = "hasIngestState";
 
+    public static final String HAS_INGEST_OWNER = "hasIngestOwner";
+
+    public static final String HAS_INGEST_LEASE_EXPIRY = "hasIngestLeaseExpiry";
+
+    public static final String HAS_INGEST_ATTEMPTS = "hasIngestAttempts";
+
+    public static final String HAS_INGEST_LANE = "hasIngestLane";
+
+    public static final String HAS_INGEST_NOT_BEFORE = "hasIngestNotBefore";
+
+    public static final String HAS_INGEST_FAILURE = "hasIngestFailure";
+
+    public static final String HAS_SHARED = "hasShared";
+
     public static final String prefix(String property) {
         return SCAPE_PREFIX + ":" + property;
     }
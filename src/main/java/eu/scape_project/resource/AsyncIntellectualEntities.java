@@ -14,15 +14,17 @@
 package eu.scape_project.resource;
 
 import java.io.InputStream;
+import java.util.List;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.xml.bind.JAXBException;
 
 import org.fcrepo.http.commons.session.InjectedSession;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,11 +33,14 @@ import org.springframework.stereotype.Component;
 
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.IngestAdmissionControl;
 
 /**
  * JAX-RS Resource for Intellectual Entities This implementation exposes the
- * /scape/entity-async endpoint as specified in the Connector API Documentation
+ * /scape/entity-async endpoint as specified in the Connector API Documentation.
+ * Submissions are rejected with HTTP status 429 while the queue is full.
+ * Entities which could not be ingested can be returned to the queue via
+ * /scape/entity-async/redrive
  * 
  * @author frank asseg
  * 
@@ -45,39 +50,76 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity-async")
 public class AsyncIntellectualEntities {
 
-    private final ScapeMarshaller marshaller;
+    public static final String QUEUE_DEPTH_HEADER = "X-Queue-Depth";
+
+    private static final int TOO_MANY_REQUESTS = 429;
 
     @Autowired
     private ConnectorService connectorService;
 
+    @Autowired
+    private IngestAdmissionControl admissionControl;
+
     @InjectedSession
     private Session session;
 
-    /**
-     * Creates and initializes a new {@link AsyncIntellectualEntities}
-     * 
-     * @throws JAXBException
-     */
-    public AsyncIntellectualEntities() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes the HTTP POST endpoint to ingest an entity asynchronously
      * 
      * @param src
      *            The {@link IntellectualEntity}'s METS representation
+     * @param lane
+     *            The lane of the queue the {@link IntellectualEntity} is
+     *            submitted to. Items in lanes with a higher weight are
+     *            ingested more often
      * @return A {@link Response} that maps to a corresponding HTTP response
-     *         code
+     *         code. The number of queued items is reported in the
+     *         <code>X-Queue-Depth</code> header
      * @throws RepositoryException
      *             If there was an issue queuing this {@link IntellectualEntity}
      *             for an asynchronous ingest
      */
     @POST
     @Produces(MediaType.TEXT_PLAIN)
-    public Response ingestEntity(final InputStream src) throws RepositoryException {
-        String id = connectorService.queueEntityForIngest(this.session, src);
-        return Response.ok(id).build();
+    public Response ingestEntity(final InputStream src, @QueryParam("lane") final String lane) throws RepositoryException {
+        final String queueLane = (lane == null || lane.isEmpty()) ? ConnectorService.DEFAULT_LANE : lane;
+        if (!connectorService.getQueueLanes().contains(queueLane)) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Unknown lane '" + queueLane + "', available lanes are " + connectorService.getQueueLanes())
+                    .build();
+        }
+        if (!admissionControl.admit()) {
+            return Response.status(TOO_MANY_REQUESTS)
+                    .header("Retry-After", admissionControl.getRetryAfter())
+                    .header(QUEUE_DEPTH_HEADER, connectorService.getQueueDepth())
+                    .entity("The ingest queue is full")
+                    .build();
+        }
+        String id = connectorService.queueEntityForIngest(this.session, src, queueLane);
+        return Response.ok(id).header(QUEUE_DEPTH_HEADER, connectorService.getQueueDepth()).build();
+    }
+
+    /**
+     * Exposes the HTTP POST endpoint to return the entities which could not be
+     * ingested asynchronously to the queue
+     * 
+     * @param limit
+     *            the maximum number of entities to return to the queue
+     * @return A {@link Response} containing the ids of the entities returned
+     *         to the queue, one per line
+     * @throws RepositoryException
+     *             If there was an issue returning the entities to the queue
+     */
+    @POST
+    @Path("redrive")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response redriveEntities(@QueryParam("limit") @DefaultValue("1000") final int limit) throws RepositoryException {
+        final List<String> ids = connectorService.redriveDeadLetters(this.session, limit);
+        final StringBuilder body = new StringBuilder();
+        for (String id : ids) {
+            body.append(id).append('\n');
+        }
+        return Response.ok(body.toString()).header(QUEUE_DEPTH_HEADER, connectorService.getQueueDepth()).build();
     }
 
 }
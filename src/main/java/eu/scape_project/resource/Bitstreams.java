@@ -36,7 +36,7 @@ import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ScapeMarshallerPool;
 
 /**
  * JAX-RS Resource for BitStreams
@@ -50,7 +50,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/bitstream")
 public class Bitstreams {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private ScapeMarshallerPool marshaller;
 
     @Autowired
     private ConnectorService connectorService;
@@ -58,10 +59,6 @@ public class Bitstreams {
     @InjectedSession
     private Session session;
 
-    public Bitstreams() throws JAXBException {
-        marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP GET end point to fetch the current Version of a
      * {@link BitStream} from the Connector API implementation
@@ -85,8 +82,7 @@ public class Bitstreams {
     final String repId, @PathParam("file-id")
     final String fileId, @PathParam("bitstream-id")
     final String bsId) throws RepositoryException {
-        final String path = "/" + ConnectorService.ENTITY_FOLDER + "/" + entityId + "/" + repId + "/" + fileId + "/" + bsId;
-        final BitStream bs = connectorService.fetchBitStream(session, path);
+        final BitStream bs = connectorService.fetchBitStream(session, entityId, repId, fileId, bsId, null);
         return Response.ok().entity(new StreamingOutput() {
 
             @Override
@@ -127,15 +123,7 @@ public class Bitstreams {
     final String bsId, @PathParam("version-id")
     final String versionId) throws RepositoryException {
 
-        final String path;
-        if (versionId == null) {
-            path = ConnectorService.ENTITY_FOLDER + "/" + entityId + "/" + repId + "/" + fileId + "/" + bsId;
-
-        } else {
-            path = ConnectorService.ENTITY_FOLDER + "/" + entityId + "/version-" + versionId + "/" + repId + "/" + fileId + "/" + bsId;
-
-        }
-        final BitStream bs = connectorService.fetchBitStream(session, path);
+        final BitStream bs = connectorService.fetchBitStream(session, entityId, repId, fileId, bsId, versionId);
         return Response.ok().entity(new StreamingOutput() {
 
             @Override
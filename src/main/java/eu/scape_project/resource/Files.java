@@ -21,7 +21,6 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
-import javax.xml.bind.JAXBException;
 
 import org.fcrepo.http.commons.session.InjectedSession;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,7 +33,6 @@ import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
 import eu.scape_project.util.ContentTypeInputStream;
-import eu.scape_project.util.ScapeMarshaller;
 
 /**
  * JAX-RS Resource for Files
@@ -48,18 +46,12 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/file")
 public class Files {
 
-    private final ScapeMarshaller marshaller;
-
     @Autowired
     private ConnectorService connectorService;
 
     @InjectedSession
     private Session session;
 
-    public Files() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP GET end point witch returns the current version binary
      * content of a {@link File} or if references are used for files a HTTP
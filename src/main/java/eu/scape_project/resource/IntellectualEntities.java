@@ -16,6 +16,8 @@ package eu.scape_project.resource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -43,7 +45,7 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ScapeMarshallerPool;
 
 /**
  * JAX-RS Resource for Intellectual Entities
@@ -56,7 +58,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity")
 public class IntellectualEntities {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private ScapeMarshallerPool marshaller;
 
     @Autowired
     private ConnectorService connectorService;
@@ -64,10 +67,6 @@ public class IntellectualEntities {
     @InjectedSession
     private Session session;
 
-    public IntellectualEntities() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP end point to Ingest an {@link IntellectualEntity} as
      * defined in the Connector API
@@ -86,6 +85,52 @@ public class IntellectualEntities {
         return Response.status(Status.CREATED).entity(id).build();
     }
 
+    /**
+     * Exposes an HTTP end point to ingest many {@link IntellectualEntity}s
+     * with a single request. The response is streamed while the entities are
+     * ingested and contains one line per entity consisting of the entity's id,
+     * a tab and either <code>CREATED</code> or <code>FAILED</code> followed by
+     * a tab and the reason of the failure
+     * 
+     * @param src
+     *            An {@link InputStream} serving the METS representations of
+     *            the {@link IntellectualEntity}s, e.g. a serialized
+     *            {@link eu.scape_project.model.IntellectualEntityCollection}
+     * @return a {@link Response} which maps to a corresponding HTTP response
+     */
+    @POST
+    @Path("bulk")
+    @Consumes(MediaType.TEXT_XML)
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response ingestEntities(final InputStream src) {
+        return Response.ok(new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                final PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, "UTF-8"));
+                try {
+                    connectorService.addEntities(session, src, new ConnectorService.BulkIngestHandler() {
+
+                        @Override
+                        public void ingested(String id) {
+                            writer.print(id + "\tCREATED\n");
+                            writer.flush();
+                        }
+
+                        @Override
+                        public void failed(String id, String reason) {
+                            writer.print(id + "\tFAILED\t" + reason.replace('\n', ' ') + "\n");
+                            writer.flush();
+                        }
+                    });
+                } catch (RepositoryException e) {
+                    writer.print("-\tFAILED\t" + e.getMessage() + "\n");
+                }
+                writer.flush();
+            }
+        }).build();
+    }
+
     /**
      * Exposes a Http end point for retrieving an {@link IntellectualEntity}'s
      * METS representation
@@ -109,6 +154,9 @@ public class IntellectualEntities {
     final String useReferences) throws RepositoryException {
 
         final boolean refs = useReferences.equalsIgnoreCase("yes");
+        if (connectorService.isStreamingRetrieval() && !refs) {
+            return streamEntity(id, null);
+        }
         final IntellectualEntity ie = connectorService.fetchEntity(this.session, id);
         /* create a streaming METS response using the ScapeMarshaller */
         return Response.ok(new StreamingOutput() {
@@ -152,6 +200,9 @@ public class IntellectualEntities {
     final String useReferences) throws RepositoryException {
 
         final boolean refs = useReferences.equalsIgnoreCase("yes");
+        if (connectorService.isStreamingRetrieval() && !refs) {
+            return streamEntity(id, versionNumber);
+        }
         final IntellectualEntity ie = connectorService.fetchEntity(this.session, id, versionNumber);
         /* create a streaming METS response using the ScapeMarshaller */
         return Response.ok(new StreamingOutput() {
@@ -169,6 +220,26 @@ public class IntellectualEntities {
 
     }
 
+    /*
+     * write the METS document while the entity is read from the repository.
+     * The version is resolved beforehand, so that a missing entity is
+     * reported before the response has been started
+     */
+    private Response streamEntity(final String id, final Integer versionNumber) throws RepositoryException {
+        final String versionPath = connectorService.fetchVersionPath(this.session, id, versionNumber);
+        return Response.ok(new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                try {
+                    IntellectualEntities.this.connectorService.writeEntity(IntellectualEntities.this.session, id, versionPath, output);
+                } catch (RepositoryException e) {
+                    throw new IOException(e);
+                }
+            }
+        }).build();
+    }
+
     /**
      * Exposes an HTTP end point to update an {@link IntellectualEntity}
      * 
@@ -39,7 +39,7 @@ import org.springframework.stereotype.Component;
 
 import eu.scape_project.model.IntellectualEntityCollection;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ScapeMarshallerPool;
 
 /**
  * JAX-RS Resource for Intellectual Entity Collections
@@ -52,7 +52,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity-list")
 public class IntellectualEntityCollections {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private ScapeMarshallerPool marshaller;
 
     @Autowired
     private ConnectorService connectorService;
@@ -60,10 +61,6 @@ public class IntellectualEntityCollections {
     @InjectedSession
     private Session session;
 
-    public IntellectualEntityCollections() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Retrieve an {@link IntellectualEntityCollection} from the repository
      * 
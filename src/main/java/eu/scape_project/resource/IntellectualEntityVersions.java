@@ -36,7 +36,7 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.VersionList;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ScapeMarshallerPool;
 
 /**
  * JAX-RS Resource for Intellectual Entity Versions
@@ -49,7 +49,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity-version-list")
 public class IntellectualEntityVersions {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private ScapeMarshallerPool marshaller;
 
     @Autowired
     private ConnectorService connectorService;
@@ -57,10 +58,6 @@ public class IntellectualEntityVersions {
     @InjectedSession
     private Session session;
 
-    public IntellectualEntityVersions() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP end point which lets a user retrieve a
      * {@link VersionList} of an {@link IntellectualEntity}
@@ -36,7 +36,7 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.LifecycleState;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ScapeMarshallerPool;
 
 /**
  * JAX-RS Resource for life cycle states
@@ -49,7 +49,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/lifecycle")
 public class LifeCycleStates {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private ScapeMarshallerPool marshaller;
 
     @Autowired
     private ConnectorService connectorService;
@@ -57,10 +58,6 @@ public class LifeCycleStates {
     @InjectedSession
     private Session session;
 
-    public LifeCycleStates() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP end point to fetch the {@link LifecycleState} of an
      * {@link IntellectualEntity}
@@ -13,9 +13,7 @@
  */
 package eu.scape_project.resource;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -24,11 +22,8 @@ import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
-import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
-import javax.xml.bind.JAXBException;
 
 import org.fcrepo.http.commons.session.InjectedSession;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,7 +31,7 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ContentTypeInputStream;
 /**
  * JAX-RS Resource for metadata
  *
@@ -49,19 +44,12 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/metadata")
 public class Metadata {
 
-    private final ScapeMarshaller marshaller;
-
     @Autowired
     private ConnectorService connectorService;
 
     @InjectedSession
     private Session session;
 
-    public Metadata()
-            throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     @GET
     @Path("{path: .*}")
     /**
@@ -73,19 +61,9 @@ public class Metadata {
     public Response retrieveMetadata(@PathParam("path")
     String path) throws RepositoryException {
         path = ConnectorService.ENTITY_FOLDER + "/" + path;
-        final Object md = connectorService.fetchCurrentMetadata(this.session, path);
-        return Response.ok().entity(new StreamingOutput() {
-
-            @Override
-            public void write(OutputStream output) throws IOException,
-                    WebApplicationException {
-                try {
-                    Metadata.this.marshaller.serialize(md, output);
-                } catch (JAXBException e) {
-                    throw new IOException(e);
-                }
-            }
-        }).build();
+        /* the metadata is passed on as it has been stored instead of unmarshalling and marshalling it again */
+        final ContentTypeInputStream src = connectorService.fetchCurrentMetadataContent(this.session, path);
+        return Response.ok().entity(src).type(src.getContentType()).build();
     }
 
     /**
@@ -36,7 +36,7 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ScapeMarshallerPool;
 
 /**
  * JAX-RS Resource for Representations
@@ -50,7 +50,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/representation")
 public class Representations {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private ScapeMarshallerPool marshaller;
 
     @Autowired
     private ConnectorService connectorService;
@@ -58,10 +59,6 @@ public class Representations {
     @InjectedSession
     private Session session;
 
-    public Representations() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes a HTTP end point for retrieving the current version of a
      * {@link Representation}
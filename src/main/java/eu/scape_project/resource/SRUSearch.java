@@ -37,7 +37,7 @@ import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.ScapeMarshallerPool;
 
 /**
  * JAX-RS Resource for SRU search
@@ -57,11 +57,8 @@ public class SRUSearch {
     @Autowired
     private ConnectorService connectorService;
 
-    private final ScapeMarshaller marshaller;
-
-    public SRUSearch() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
+    @Autowired
+    private ScapeMarshallerPool marshaller;
 
     /**
      * Exposes a HTTP end point modeled after the SRU specifications to search
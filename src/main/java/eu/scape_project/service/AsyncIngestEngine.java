@@ -0,0 +1,586 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.services.DatastreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import eu.scape_project.util.ConnectorMetrics;
+
+/**
+ * Drains the asynchronous ingest queue using a pool of worker threads. Each
+ * worker uses its own JCR {@link Session} and claims queue items one at a time
+ * via {@link ConnectorService#claimQueuedItem(Session, String, long)}. Idle
+ * workers are woken up by a JCR observation listener as soon as a new item is
+ * saved in the queue and fall back to polling the queue at the poll interval
+ * in case an event is missed. Items are claimed from the lanes of the queue in
+ * proportion to the lanes' weights. A claim
+ * is a lease which is renewed periodically while the item is being ingested.
+ * Leases which have not been renewed, e.g. because the connector crashed, are
+ * returned to the queue by a reaper so that the backlog is resumed after a
+ * restart. Items which failed because of a transient error are returned to
+ * the queue once their backoff has elapsed
+ *
+ * @author frank asseg
+ *
+ */
+public class AsyncIngestEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncIngestEngine.class);
+
+    @Autowired
+    private ConnectorService connectorService;
+
+    @Autowired
+    private DatastreamService datastreamService;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired
+    private ConnectorMetrics metrics;
+
+    private int workers = 2;
+
+    private long pollInterval = 30 * 1000;
+
+    private long initialDelay = 5000;
+
+    private long leaseTimeout = 5 * 60 * 1000;
+
+    private long reapInterval = 30 * 1000;
+
+    private long retryInterval = 1000;
+
+    private int groupCommitSize = 1;
+
+    private long groupCommitBytes = 8 * 1024 * 1024;
+
+    /* identifies this connector instance in the leases it holds */
+    private final String instanceId = ManagementFactory.getRuntimeMXBean().getName();
+
+    /* the items currently leased by the workers mapped to the worker ids */
+    private final Map<String, String> leases = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    private ScheduledExecutorService maintenance;
+
+    private Session maintenanceSession;
+
+    private Session observationSession;
+
+    private final EventListener queueListener = new QueueListener();
+
+    /* wakes up idle workers, guarded by itself */
+    private final Object signal = new Object();
+
+    private long signals;
+
+    private volatile boolean running;
+
+    private final AtomicInteger busy = new AtomicInteger();
+
+    private Meter ingested;
+
+    private Meter failed;
+
+    private Timer ingestTimer;
+
+    private Timer latencyTimer;
+
+    private Meter reaped;
+
+    /**
+     * Get the number of workers ingesting queue items concurrently
+     *
+     * @return the number of workers
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Set the number of workers ingesting queue items concurrently
+     *
+     * @param workers
+     *            the number of workers
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Get the time in milliseconds an idle worker waits for a new item before
+     * checking the queue again
+     *
+     * @return the poll interval in milliseconds
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Set the time in milliseconds an idle worker waits for a new item before
+     * checking the queue again
+     *
+     * @param pollInterval
+     *            the poll interval in milliseconds
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Get the time in milliseconds the workers wait after startup before
+     * checking the queue for the first time
+     *
+     * @return the initial delay in milliseconds
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * Set the time in milliseconds the workers wait after startup before
+     * checking the queue for the first time
+     *
+     * @param initialDelay
+     *            the initial delay in milliseconds
+     */
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * Get the time in milliseconds after which the claim of a queue item
+     * expires unless it is renewed by the worker ingesting the item
+     *
+     * @return the lease timeout in milliseconds
+     */
+    public long getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    /**
+     * Set the time in milliseconds after which the claim of a queue item
+     * expires unless it is renewed by the worker ingesting the item
+     *
+     * @param leaseTimeout
+     *            the lease timeout in milliseconds
+     */
+    public void setLeaseTimeout(long leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    /**
+     * Get the interval in milliseconds at which leases are renewed and expired
+     * leases are returned to the queue
+     *
+     * @return the reap interval in milliseconds
+     */
+    public long getReapInterval() {
+        return reapInterval;
+    }
+
+    /**
+     * Set the interval in milliseconds at which leases are renewed and expired
+     * leases are returned to the queue. This has to be shorter than the lease
+     * timeout
+     *
+     * @param reapInterval
+     *            the reap interval in milliseconds
+     */
+    public void setReapInterval(long reapInterval) {
+        this.reapInterval = reapInterval;
+    }
+
+    /**
+     * Get the interval in milliseconds at which failed items whose backoff has
+     * elapsed are returned to the queue
+     *
+     * @return the retry interval in milliseconds
+     */
+    public long getRetryInterval() {
+        return retryInterval;
+    }
+
+    /**
+     * Set the interval in milliseconds at which failed items whose backoff has
+     * elapsed are returned to the queue
+     *
+     * @param retryInterval
+     *            the retry interval in milliseconds
+     */
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * Get the maximum number of queue items a worker ingests and saves
+     * together
+     *
+     * @return the maximum number of items per commit
+     */
+    public int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    /**
+     * Set the maximum number of queue items a worker ingests and saves
+     * together. Saving small entities together increases the throughput at the
+     * cost of latency. A value of 1 disables group commits
+     *
+     * @param groupCommitSize
+     *            the maximum number of items per commit
+     */
+    public void setGroupCommitSize(int groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    /**
+     * Get the maximum size in bytes of the METS documents a worker ingests and
+     * saves together
+     *
+     * @return the maximum number of bytes per commit
+     */
+    public long getGroupCommitBytes() {
+        return groupCommitBytes;
+    }
+
+    /**
+     * Set the maximum size in bytes of the METS documents a worker ingests and
+     * saves together. A single item exceeding the size is ingested on its own
+     *
+     * @param groupCommitBytes
+     *            the maximum number of bytes per commit
+     */
+    public void setGroupCommitBytes(long groupCommitBytes) {
+        this.groupCommitBytes = groupCommitBytes;
+    }
+
+    /**
+     * Register the metrics and start the workers
+     */
+    public void start() {
+        final MetricRegistry registry = this.metrics.getRegistry();
+        this.ingested = registry.meter(name(AsyncIngestEngine.class, "ingested"));
+        this.failed = registry.meter(name(AsyncIngestEngine.class, "failed"));
+        this.ingestTimer = registry.timer(name(AsyncIngestEngine.class, "ingest"));
+        this.latencyTimer = registry.timer(name(AsyncIngestEngine.class, "latency"));
+        this.reaped = registry.meter(name(AsyncIngestEngine.class, "reaped"));
+        registry.register(name(AsyncIngestEngine.class, "queue-depth"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return connectorService.getQueueDepth();
+            }
+        });
+        for (final String lane : this.connectorService.getQueueLanes()) {
+            registry.register(name(AsyncIngestEngine.class, "lane", lane, "queue-depth"), new Gauge<Integer>() {
+
+                @Override
+                public Integer getValue() {
+                    return connectorService.getQueueDepth(lane);
+                }
+            });
+            registry.register(name(AsyncIngestEngine.class, "lane", lane, "wait"), new Gauge<Long>() {
+
+                @Override
+                public Long getValue() {
+                    return connectorService.getQueueWait(lane);
+                }
+            });
+        }
+        registry.register(name(AsyncIngestEngine.class, "busy-workers"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return busy.get();
+            }
+        });
+
+        this.running = true;
+        try {
+            this.observationSession = this.sessionFactory.getInternalSession();
+            this.observationSession.getWorkspace().getObservationManager()
+                    .addEventListener(this.queueListener, Event.NODE_ADDED, ConnectorService.QUEUE_NODE, true, null, null, false);
+        } catch (RepositoryException e) {
+            LOG.warn("Unable to observe the ingest queue, falling back to polling every " + this.pollInterval + " ms", e);
+            if (this.observationSession != null) {
+                this.observationSession.logout();
+                this.observationSession = null;
+            }
+        }
+        this.executor = Executors.newFixedThreadPool(this.workers, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "scape-ingest-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < this.workers; i++) {
+            this.executor.execute(new Worker());
+        }
+
+        /* renew the leases held by the workers and reap expired ones */
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "scape-ingest-reaper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.maintenance.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                maintainLeases();
+            }
+        }, this.initialDelay, this.reapInterval, TimeUnit.MILLISECONDS);
+        this.maintenance.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                requeueRetries();
+            }
+        }, this.initialDelay, this.retryInterval, TimeUnit.MILLISECONDS);
+        LOG.info("started {} async ingest workers", this.workers);
+    }
+
+    private void maintainLeases() {
+        try {
+            openMaintenanceSession();
+            final long expiry = System.currentTimeMillis() + this.leaseTimeout;
+            for (Map.Entry<String, String> lease : this.leases.entrySet()) {
+                if (!this.connectorService.renewLease(this.maintenanceSession, lease.getKey(), lease.getValue(), expiry)) {
+                    LOG.warn("unable to renew the lease of queue item {} held by {}", lease.getKey(), lease.getValue());
+                }
+            }
+            final int count = this.connectorService.reapExpiredLeases(this.maintenanceSession, System.currentTimeMillis());
+            if (count > 0) {
+                this.reaped.mark(count);
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            LOG.error("Unable to maintain the leases of the ingest queue", e);
+            closeMaintenanceSession();
+        }
+    }
+
+    private void requeueRetries() {
+        try {
+            openMaintenanceSession();
+            if (this.connectorService.requeueDueRetries(this.maintenanceSession, System.currentTimeMillis()) > 0) {
+                signalWorkers();
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            LOG.error("Unable to return failed items to the ingest queue", e);
+            closeMaintenanceSession();
+        }
+    }
+
+    /* the maintenance tasks run on a single thread and share a session */
+    private void openMaintenanceSession() {
+        if (this.maintenanceSession == null) {
+            this.maintenanceSession = this.sessionFactory.getInternalSession();
+        }
+    }
+
+    private void closeMaintenanceSession() {
+        if (this.maintenanceSession != null) {
+            this.maintenanceSession.logout();
+            this.maintenanceSession = null;
+        }
+    }
+
+    /**
+     * Stop the workers. Items currently being ingested are interrupted
+     */
+    public void stop() {
+        this.running = false;
+        if (this.observationSession != null) {
+            try {
+                this.observationSession.getWorkspace().getObservationManager().removeEventListener(this.queueListener);
+            } catch (RepositoryException e) {
+                LOG.warn("Unable to remove the ingest queue listener", e);
+            }
+            this.observationSession.logout();
+            this.observationSession = null;
+        }
+        if (this.maintenance != null) {
+            this.maintenance.shutdownNow();
+        }
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            try {
+                this.executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private long currentSignal() {
+        synchronized (this.signal) {
+            return this.signals;
+        }
+    }
+
+    /* wait for new items unless some arrived since the worker last checked */
+    private void awaitSignal(final long seen) throws InterruptedException {
+        synchronized (this.signal) {
+            if (this.signals == seen) {
+                this.signal.wait(this.pollInterval);
+            }
+        }
+    }
+
+    private void signalWorkers() {
+        synchronized (this.signal) {
+            this.signals++;
+            this.signal.notifyAll();
+        }
+    }
+
+    private final class QueueListener implements EventListener {
+
+        @Override
+        public void onEvent(EventIterator events) {
+            boolean queued = false;
+            while (events.hasNext()) {
+                final Event event = events.nextEvent();
+                try {
+                    final String path = event.getPath();
+                    /* only the item nodes themselves, not their content nodes */
+                    if (path.lastIndexOf('/') == ConnectorService.QUEUE_NODE.length() && path.startsWith(ConnectorService.QUEUE_NODE)) {
+                        connectorService.indexQueuedItem(observationSession, path);
+                        queued = true;
+                    }
+                } catch (RepositoryException e) {
+                    LOG.warn("Unable to read ingest queue event", e);
+                }
+            }
+            if (queued) {
+                signalWorkers();
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        private String id;
+
+        @Override
+        public void run() {
+            this.id = instanceId + "/" + Thread.currentThread().getName();
+            Session session = null;
+            try {
+                Thread.sleep(initialDelay);
+                session = sessionFactory.getInternalSession();
+                while (running && !Thread.currentThread().isInterrupted()) {
+                    final long seen = currentSignal();
+                    if (!ingestNext(session)) {
+                        awaitSignal(seen);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (session != null) {
+                    session.logout();
+                }
+            }
+        }
+
+        private boolean ingestNext(final Session session) throws InterruptedException {
+            final List<String> items;
+            final Map<String, Long> queued = new HashMap<>();
+            try {
+                items = connectorService.claimQueuedItems(session, this.id, System.currentTimeMillis() + leaseTimeout, groupCommitSize, groupCommitBytes);
+                if (items.isEmpty()) {
+                    return false;
+                }
+                for (String item : items) {
+                    queued.put(item, datastreamService.getDatastream(session, item).getCreatedDate().getTime());
+                }
+            } catch (RepositoryException | RuntimeException e) {
+                LOG.error("Unable to claim an item from the ingest queue", e);
+                Thread.sleep(pollInterval);
+                return false;
+            }
+
+            busy.incrementAndGet();
+            for (String item : items) {
+                leases.put(item, this.id);
+            }
+            final Timer.Context time = ingestTimer.time();
+            try {
+                if (items.size() == 1) {
+                    connectorService.ingestQueuedItem(session, items.get(0), this.id);
+                    ingested.mark();
+                } else {
+                    final List<String> failures = connectorService.ingestQueuedItems(session, items, this.id);
+                    ingested.mark(items.size() - failures.size());
+                    failed.mark(failures.size());
+                }
+            } catch (RepositoryException | RuntimeException e) {
+                LOG.error("Unable to ingest queue items " + items, e);
+                failed.mark(items.size());
+            } finally {
+                final long now = System.currentTimeMillis();
+                for (String item : items) {
+                    leases.remove(item);
+                    latencyTimer.update(now - queued.get(item), TimeUnit.MILLISECONDS);
+                }
+                time.stop();
+                busy.decrementAndGet();
+            }
+            return true;
+        }
+    }
+}
@@ -13,15 +13,37 @@
  */
 package eu.scape_project.service;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static eu.scape_project.rdf.ScapeNodeProperties.*;
 import static eu.scape_project.rdf.ScapeRDFVocabulary.*;
 
 import java.io.*;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.*;
 import javax.jcr.NodeIterator;
+import javax.jcr.lock.LockException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
@@ -30,11 +52,12 @@ import javax.jcr.query.qom.QueryObjectModelFactory;
 import javax.jcr.query.qom.Source;
 import javax.xml.bind.JAXBException;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.fcrepo.http.commons.session.SessionFactory;
 import org.fcrepo.kernel.Datastream;
 import org.fcrepo.kernel.FedoraObject;
 import org.fcrepo.kernel.exception.InvalidChecksumException;
-import org.fcrepo.kernel.impl.rdf.SerializationUtils;
 import org.fcrepo.kernel.impl.rdf.impl.DefaultIdentifierTranslator;
 import org.fcrepo.kernel.rdf.IdentifierTranslator;
 import org.fcrepo.kernel.services.DatastreamService;
@@ -44,21 +67,31 @@ import org.purl.dc.elements._1.ElementContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.books.gbs.GbsType;
-import com.hp.hpl.jena.query.Dataset;
-import com.hp.hpl.jena.rdf.model.*;
-import com.hp.hpl.jena.rdf.model.Property;
 
 import edu.harvard.hul.ois.xml.ns.fits.fits_output.Fits;
 import eu.scape_project.model.*;
 import eu.scape_project.model.File;
 import eu.scape_project.model.LifecycleState.State;
 import eu.scape_project.rdf.ScapeRDFVocabulary;
+import eu.scape_project.util.BufferPool;
+import eu.scape_project.util.ConnectorMetrics;
 import eu.scape_project.util.ContentTypeInputStream;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.MetsCollectionReader;
+import eu.scape_project.util.ScapeMarshallerPool;
+import eu.scape_project.util.StreamingMetsReader;
+import eu.scape_project.util.StreamingMetsReader.MetsDiv;
+import eu.scape_project.util.StreamingMetsReader.MetsFile;
+import eu.scape_project.util.StreamingMetsReader.MetsStream;
+import eu.scape_project.util.StreamingMetsReader.Section;
+import eu.scape_project.util.StreamingMetsWriter;
+import eu.scape_project.util.WeightedLruCache;
 import gov.loc.audiomd.AudioType;
 import gov.loc.marc21.slim.RecordType;
 import gov.loc.mix.v20.Mix;
@@ -80,11 +113,20 @@ public class ConnectorService {
 
     public final static String QUEUE_NODE = "/objects/scape/queue";
 
+    public final static String DEAD_LETTER_NODE = "/objects/scape/queue-failed";
+
+    public final static String DEFAULT_LANE = "default";
+
+    /* the number of bytes read from a queued document to find its id */
+    private static final int QUEUE_HEADER_SIZE = 64 * 1024;
+
     public String fedoraUrl;
 
     public boolean referencedContent;
 
-    private final ScapeMarshaller marshaller;
+    private boolean streamingIngest;
+
+    private boolean streamingRetrieval;
 
     private static final Logger LOG = LoggerFactory.getLogger(ConnectorService.class);
 
@@ -97,27 +139,263 @@ public class ConnectorService {
     @Autowired
     private DatastreamService datastreamService;
 
+    @Autowired
+    private ScapeMarshallerPool marshaller;
+
+    @Autowired
+    private ConnectorMetrics metrics;
+
     @Autowired
     private SessionFactory sessionFactory;
 
+    private final BufferPool metadataBuffers = new BufferPool(64, 8 * 1024, 1024 * 1024);
+
+    private Timer metadataTimer;
+
     private final java.io.File tempDirectory;
 
+    private int fetchThreads = 4;
+
+    private ThreadPoolExecutor fetchExecutor;
+
+    private int parseThreads = 2;
+
+    private int pipelineQueueSize = 16;
+
+    /* the stages of a pipelined bulk ingest */
+    private ThreadPoolExecutor parseExecutor;
+
+    private ExecutorService readExecutor;
+
+    /* the number of parsed entities waiting to be persisted */
+    private final AtomicInteger pipelinePending = new AtomicInteger();
+
+    /* serializes the modifications of the ingest queue */
+    private final Object queueLock = new Object();
+
+    /* the queue items keyed by their ingest state */
+    private final IngestQueueIndex queueIndex = new IngestQueueIndex();
+
+    /* the weights of the queue lanes and their credits for the scheduling */
+    private final Map<String, Integer> laneWeights = new LinkedHashMap<>(Collections.singletonMap(DEFAULT_LANE, 1));
+
+    private final Map<String, Integer> laneCredits = new HashMap<>();
+
+    private Timer fetchTimer;
+
+    private int bulkCommitSize = 100;
+
+    private int ingestChunkSize = 0;
+
+    private long versionCacheWeight = 100000;
+
+    /* assembled versions of entities keyed by the paths of the versions */
+    private WeightedLruCache<String, IntellectualEntity> versionCache;
+
+    /* the current version paths keyed by entity id, modified while holding the lock of the map */
+    private final Map<String, String> currentVersions = new ConcurrentHashMap<>();
+
+    /* counts the changes of current versions, guarded by currentVersions */
+    private long currentVersionChanges;
+
+    /* current versions are only cached while changes made by other nodes can be observed */
+    private volatile boolean currentVersionsObserved;
+
+    private Session observationSession;
+
+    private final EventListener currentVersionListener = new CurrentVersionListener();
+
+    private final EventListener entityRemovalListener = new EntityRemovalListener();
+
+    private int retryMaxAttempts = 5;
+
+    private long retryBackoff = 1000;
+
+    private long retryBackoffMax = 5 * 60 * 1000;
+
+    private final Random random = new Random();
+
+    private Meter retried;
+
+    private Meter deadLettered;
+
     /**
      * Create a new {@link ConnectorService} instance
-     * 
-     * @throws JAXBException
-     *             if the initizialization of the JAX-B marshalling mechanism
-     *             failed
      */
-    public ConnectorService() throws JAXBException {
-        System.out.println("new instance for marshaller");
-        marshaller = ScapeMarshaller.newInstance();
+    public ConnectorService() {
         tempDirectory = new java.io.File(System.getProperty("java.io.tmpdir") + "/scape-connector-queue");
         if (!tempDirectory.exists()) {
             tempDirectory.mkdir();
         }
     }
 
+    /**
+     * Start the worker pools fetching binaries and parsing METS documents and
+     * register the {@link ConnectorService}'s metrics
+     */
+    public void init() {
+        this.fetchExecutor =
+                new ThreadPoolExecutor(this.fetchThreads, this.fetchThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                        daemonThreads("scape-fetch-worker-"));
+        this.parseExecutor =
+                new ThreadPoolExecutor(this.parseThreads, this.parseThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                        daemonThreads("scape-parse-worker-"));
+        this.readExecutor = Executors.newCachedThreadPool(daemonThreads("scape-read-worker-"));
+        this.versionCache = new WeightedLruCache<>(this.versionCacheWeight);
+        try {
+            this.observationSession = this.sessionFactory.getInternalSession();
+            final ObservationManager observation = this.observationSession.getWorkspace().getObservationManager();
+            /* only the properties of the entity nodes, not the ones of their children */
+            observation.addEventListener(this.currentVersionListener, Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED,
+                    ENTITY_FOLDER, true, null, new String[] { "scape:intellectual-entity" }, false);
+            observation.addEventListener(this.entityRemovalListener, Event.NODE_REMOVED, ENTITY_FOLDER, false, null, null, false);
+            this.currentVersionsObserved = true;
+        } catch (RepositoryException e) {
+            LOG.warn("Unable to observe the entities, the current versions will not be cached", e);
+            if (this.observationSession != null) {
+                this.observationSession.logout();
+                this.observationSession = null;
+            }
+        }
+        /* index the queue now, so that the admission control sees its depth from the start */
+        Session session = null;
+        try {
+            session = this.sessionFactory.getInternalSession();
+            synchronized (this.queueLock) {
+                loadQueueIndex(session);
+            }
+        } catch (RepositoryException e) {
+            LOG.warn("Unable to index the ingest queue, it will be indexed when it is used first", e);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+        final MetricRegistry registry = this.metrics.getRegistry();
+        this.metadataTimer = registry.timer(name(ConnectorService.class, "metadata", "serialization"));
+        this.fetchTimer = registry.timer(name(ConnectorService.class, "binary", "fetch"));
+        this.retried = registry.meter(name(ConnectorService.class, "queue", "retried"));
+        this.deadLettered = registry.meter(name(ConnectorService.class, "queue", "dead-lettered"));
+        registry.register(name(ConnectorService.class, "metadata", "buffers", "created"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return metadataBuffers.getCreated();
+            }
+        });
+        registry.register(name(ConnectorService.class, "metadata", "buffers", "in-use"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return metadataBuffers.getInUse();
+            }
+        });
+        registry.register(name(ConnectorService.class, "metadata", "buffers", "idle"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return metadataBuffers.getIdle();
+            }
+        });
+        registry.register(name(ConnectorService.class, "pipeline", "parse", "queue"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return parseExecutor.getQueue().size();
+            }
+        });
+        registry.register(name(ConnectorService.class, "pipeline", "parse", "active"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return parseExecutor.getActiveCount();
+            }
+        });
+        registry.register(name(ConnectorService.class, "pipeline", "fetch", "queue"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return fetchExecutor.getQueue().size();
+            }
+        });
+        registry.register(name(ConnectorService.class, "pipeline", "fetch", "active"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return fetchExecutor.getActiveCount();
+            }
+        });
+        registry.register(name(ConnectorService.class, "pipeline", "persist", "queue"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return pipelinePending.get();
+            }
+        });
+        registry.register(name(ConnectorService.class, "version-cache", "hits"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return versionCache.getHits();
+            }
+        });
+        registry.register(name(ConnectorService.class, "version-cache", "misses"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return versionCache.getMisses();
+            }
+        });
+        registry.register(name(ConnectorService.class, "version-cache", "evictions"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return versionCache.getEvictions();
+            }
+        });
+        registry.register(name(ConnectorService.class, "version-cache", "entries"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return versionCache.getSize();
+            }
+        });
+        registry.register(name(ConnectorService.class, "version-cache", "weight"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return versionCache.getWeight();
+            }
+        });
+    }
+
+    /**
+     * Stop the worker pools fetching binaries and parsing METS documents
+     */
+    public void destroy() {
+        this.currentVersionsObserved = false;
+        if (this.observationSession != null) {
+            try {
+                final ObservationManager observation = this.observationSession.getWorkspace().getObservationManager();
+                observation.removeEventListener(this.currentVersionListener);
+                observation.removeEventListener(this.entityRemovalListener);
+            } catch (RepositoryException e) {
+                LOG.warn("Unable to remove the entity listener", e);
+            }
+            this.observationSession.logout();
+            this.observationSession = null;
+        }
+        if (this.readExecutor != null) {
+            this.readExecutor.shutdownNow();
+        }
+        if (this.parseExecutor != null) {
+            this.parseExecutor.shutdownNow();
+        }
+        if (this.fetchExecutor != null) {
+            this.fetchExecutor.shutdownNow();
+        }
+    }
+
     /**
      * Get the URL of the Fedora instance in use
      * 
@@ -161,6 +439,293 @@ public class ConnectorService {
         this.referencedContent = referencedContent;
     }
 
+    /**
+     * Get the number of worker threads fetching binaries concurrently when
+     * ingesting managed content
+     * 
+     * @return the number of worker threads
+     */
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    /**
+     * Set the number of worker threads fetching binaries concurrently when
+     * ingesting managed content
+     * 
+     * @param fetchThreads
+     *            the number of worker threads
+     */
+    public void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = fetchThreads;
+    }
+
+    /**
+     * Get the number of worker threads parsing METS documents concurrently
+     * during a bulk ingest
+     * 
+     * @return the number of worker threads
+     */
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    /**
+     * Set the number of worker threads parsing METS documents concurrently
+     * during a bulk ingest
+     * 
+     * @param parseThreads
+     *            the number of worker threads
+     */
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * Get the maximum number of entities a bulk ingest parses ahead of the
+     * entity being persisted
+     * 
+     * @return the capacity of the pipeline
+     */
+    public int getPipelineQueueSize() {
+        return pipelineQueueSize;
+    }
+
+    /**
+     * Set the maximum number of entities a bulk ingest parses ahead of the
+     * entity being persisted
+     * 
+     * @param pipelineQueueSize
+     *            the capacity of the pipeline
+     */
+    public void setPipelineQueueSize(int pipelineQueueSize) {
+        this.pipelineQueueSize = pipelineQueueSize;
+    }
+
+    /**
+     * Get the number of files after which the nodes of an entity are saved
+     * while it is ingested
+     * 
+     * @return the number of files per save or 0 if an entity is saved at once
+     */
+    public int getIngestChunkSize() {
+        return ingestChunkSize;
+    }
+
+    /**
+     * Set the number of files after which the nodes of an entity are saved
+     * while it is ingested. The entity is published by the last save, and the
+     * saved nodes are removed again if the ingest fails
+     * 
+     * @param ingestChunkSize
+     *            the number of files per save or 0 to save an entity at once
+     */
+    public void setIngestChunkSize(int ingestChunkSize) {
+        this.ingestChunkSize = ingestChunkSize;
+    }
+
+    /**
+     * Get the maximum weight of the cached entity versions
+     * 
+     * @return the maximum weight of the cache
+     */
+    public long getVersionCacheWeight() {
+        return versionCacheWeight;
+    }
+
+    /**
+     * Set the maximum weight of the cached entity versions. The weight of a
+     * version is the number of its entity, representation, file and bitstream
+     * records
+     * 
+     * @param versionCacheWeight
+     *            the maximum weight of the cache or 0 to disable the cache
+     */
+    public void setVersionCacheWeight(long versionCacheWeight) {
+        this.versionCacheWeight = versionCacheWeight;
+    }
+
+    /**
+     * Get the number of entities saved together by a bulk ingest
+     * 
+     * @return the number of entities per commit
+     */
+    public int getBulkCommitSize() {
+        return bulkCommitSize;
+    }
+
+    /**
+     * Set the number of entities saved together by a bulk ingest
+     * 
+     * @param bulkCommitSize
+     *            the number of entities per commit
+     */
+    public void setBulkCommitSize(int bulkCommitSize) {
+        this.bulkCommitSize = bulkCommitSize;
+    }
+
+    /**
+     * Get the maximum number of attempts to ingest a queue item
+     * 
+     * @return the maximum number of attempts
+     */
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    /**
+     * Set the maximum number of attempts to ingest a queue item. Items which
+     * could not be ingested after that many attempts are moved to the dead
+     * letter node
+     * 
+     * @param retryMaxAttempts
+     *            the maximum number of attempts
+     */
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    /**
+     * Get the time in milliseconds before the first retry of a failed ingest
+     * 
+     * @return the initial backoff in milliseconds
+     */
+    public long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * Set the time in milliseconds before the first retry of a failed ingest.
+     * The backoff is doubled with every attempt and a random jitter of up to
+     * half the backoff is applied
+     * 
+     * @param retryBackoff
+     *            the initial backoff in milliseconds
+     */
+    public void setRetryBackoff(long retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * Get the maximum time in milliseconds between two attempts to ingest a
+     * queue item
+     * 
+     * @return the maximum backoff in milliseconds
+     */
+    public long getRetryBackoffMax() {
+        return retryBackoffMax;
+    }
+
+    /**
+     * Set the maximum time in milliseconds between two attempts to ingest a
+     * queue item
+     * 
+     * @param retryBackoffMax
+     *            the maximum backoff in milliseconds
+     */
+    public void setRetryBackoffMax(long retryBackoffMax) {
+        this.retryBackoffMax = retryBackoffMax;
+    }
+
+    /**
+     * Get the names of the lanes of the asynchronous ingest queue
+     * 
+     * @return the names of the lanes
+     */
+    public Set<String> getQueueLanes() {
+        return Collections.unmodifiableSet(laneWeights.keySet());
+    }
+
+    /**
+     * Set the lanes of the asynchronous ingest queue and their weights. The
+     * workers claim items from the lanes in proportion to the weights, e.g.
+     * <code>urgent=8,default=4,bulk=1</code>. The lane
+     * <code>default</code> is always available and has a weight of 1 unless
+     * it is configured explicitly
+     * 
+     * @param queueLanes
+     *            a comma separated list of lanes and weights
+     */
+    public void setQueueLanes(String queueLanes) {
+        final Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String lane : queueLanes.split(",")) {
+            if (lane.trim().isEmpty()) {
+                continue;
+            }
+            final int pos = lane.indexOf('=');
+            if (pos == -1) {
+                weights.put(lane.trim(), 1);
+            } else {
+                weights.put(lane.substring(0, pos).trim(), Math.max(1, Integer.parseInt(lane.substring(pos + 1).trim())));
+            }
+        }
+        if (!weights.containsKey(DEFAULT_LANE)) {
+            weights.put(DEFAULT_LANE, 1);
+        }
+        synchronized (this.queueLock) {
+            this.laneWeights.clear();
+            this.laneWeights.putAll(weights);
+            this.laneCredits.clear();
+        }
+    }
+
+    /**
+     * Check if METS documents are read incrementally while ingesting
+     * 
+     * @return Returns <code>true</code> if the nodes of an
+     *         {@link IntellectualEntity} are created while its METS document is
+     *         being read. Returns <code>false</code> if the whole
+     *         {@link IntellectualEntity} is deserialized before it is saved
+     */
+    public boolean isStreamingIngest() {
+        return streamingIngest;
+    }
+
+    /**
+     * Set the behaviour for reading METS documents on ingest.
+     * 
+     * @param streamingIngest
+     *            If <code>true</code> METS documents are read incrementally
+     *            so that the deserialized {@link IntellectualEntity} is not
+     *            held in memory. The nodes created stay in the
+     *            {@link Session} until it is saved, so the memory used only
+     *            stops growing with the size of the
+     *            {@link IntellectualEntity} if the ingest is chunked as well,
+     *            see {@link #setIngestChunkSize(int)}. If <code>false</code>
+     *            the whole {@link IntellectualEntity} is deserialized before
+     *            it is saved
+     */
+    public void setStreamingIngest(boolean streamingIngest) {
+        this.streamingIngest = streamingIngest;
+    }
+
+    /**
+     * Check if METS documents are written while an
+     * {@link IntellectualEntity} is read from the repository
+     * 
+     * @return Returns <code>true</code> if METS documents are written using
+     *         {@link #writeEntity(Session, String, String, OutputStream)}.
+     *         Returns <code>false</code> if the whole
+     *         {@link IntellectualEntity} is fetched before it is serialized
+     */
+    public boolean isStreamingRetrieval() {
+        return streamingRetrieval;
+    }
+
+    /**
+     * Set the behaviour for writing METS documents on retrieval.
+     * 
+     * @param streamingRetrieval
+     *            If <code>true</code> METS documents are written while the
+     *            {@link IntellectualEntity} is read from the repository, so
+     *            that the memory used does not depend on the size of the
+     *            {@link IntellectualEntity}. If <code>false</code> the whole
+     *            {@link IntellectualEntity} is fetched before it is serialized
+     */
+    public void setStreamingRetrieval(boolean streamingRetrieval) {
+        this.streamingRetrieval = streamingRetrieval;
+    }
+
     /**
      * Retrieve the current version of an {@link IntellectualEntity} from Fedora
      * 
@@ -193,63 +758,292 @@ public class ConnectorService {
      */
     public IntellectualEntity fetchEntity(final Session session, final String id, final Integer versionNumber) throws RepositoryException {
 
-        final IntellectualEntity.Builder ie = new IntellectualEntity.Builder();
-        ie.identifier(new Identifier(id));
-
         final String entityPath = ENTITY_FOLDER + "/" + id;
-        final FedoraObject ieObject = this.objectService.getObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String entityUri = subjects.getSubject(entityPath).getURI();
-        final Dataset ds = ieObject.getPropertiesDataset(subjects);
-        final Model entityModel = SerializationUtils.unifyDatasetModel(ds);
-        String versionPath;
-        if (versionNumber != null) {
-            versionPath = entityPath + "/version-" + versionNumber;
+        final Node entityNode = this.objectService.getObject(session, entityPath).getNode();
+
+        /* fetch the lifecycle state */
+        final String state = getFirstString(entityNode, HAS_LIFECYCLESTATE);
+        final String details = getFirstString(entityNode, HAS_LIFECYCLESTATE_DETAILS);
+        final LifecycleState lifecycle = new LifecycleState(details, LifecycleState.State.valueOf(state));
+
+        final String versionPath;
+        if (versionNumber == null) {
+            versionPath = fetchCurrentVersionPath(session, id);
         } else {
-            versionPath = getCurrentVersionPath(entityModel, entityUri);
+            versionPath = entityPath + "/version-" + versionNumber;
+        }
+
+        /*
+         * a version is never changed once it has been published, so it can be
+         * cached without invalidation. The version path identifies both the
+         * entity and the version number. Only the lifecycle state is kept on
+         * the entity itself and has to be read on every request
+         */
+        final IntellectualEntity cached = this.versionCache.get(versionPath);
+        if (cached != null) {
+            checkReadable(session, versionPath);
+            return new IntellectualEntity.Builder(cached).lifecycleState(lifecycle).build();
+        }
+        final IntellectualEntity ie = fetchVersion(session, id, versionPath, lifecycle);
+
+        /* a version which is still being ingested must not be cached */
+        final String versionUri = new DefaultIdentifierTranslator().getSubject(versionPath).getURI();
+        if (getStrings(entityNode, HAS_VERSION).contains(versionUri)) {
+            this.versionCache.put(versionPath, ie, weigh(ie));
         }
+        return ie;
+    }
+
+    /*
+     * the version cache is shared by all sessions, so a cached version is
+     * only returned if the session could read it from the repository. This
+     * checks the version node and the representations, which may have been
+     * shared from a previous version
+     */
+    private void checkReadable(final Session session, final String versionPath) throws RepositoryException {
+        final Node versionNode = session.getNode(versionPath);
+        for (String repPath : getPaths(versionNode, HAS_REPRESENTATION)) {
+            if (!session.hasPermission(repPath, Session.ACTION_READ)) {
+                throw new AccessDeniedException("Read access to " + repPath + " denied");
+            }
+        }
+    }
+
+    private IntellectualEntity fetchVersion(final Session session, final String id, final String versionPath, final LifecycleState lifecycle)
+            throws RepositoryException {
+        final IntellectualEntity.Builder ie = new IntellectualEntity.Builder();
+        ie.identifier(new Identifier(id));
 
-        final FedoraObject versionObject = this.objectService.getObject(session, versionPath);
-        final Model versionModel = SerializationUtils.unifyDatasetModel(versionObject.getPropertiesDataset(subjects));
+        final Node versionNode = this.objectService.getObject(session, versionPath).getNode();
 
         /* fetch the ie's metadata form the repo */
-        ie.descriptive(fetchMetadata(session, versionPath + "/DESCRIPTIVE"));
+        ie.descriptive(fetchMetadata(session, datastreamPath(versionNode, "DESCRIPTIVE")));
 
         /* find all the representations of this entity */
-        final Resource versionResource = versionModel.createResource(subjects.getSubject(versionPath).getURI());
         final List<Representation> reps = new ArrayList<>();
-        for (String repUri : getLiteralStrings(versionModel, versionResource, HAS_REPRESENTATION)) {
-            reps.add(fetchRepresentation(session, repUri.substring(repUri.indexOf('/'))));
+        for (String repPath : getPaths(versionNode, HAS_REPRESENTATION)) {
+            reps.add(fetchRepresentation(session, repPath));
         }
         ie.representations(reps);
-
-        /* fetch the lifecycle state */
-        final Resource entityResource = versionModel.createResource(entityUri);
-        final String state = getFirstLiteralString(entityModel, entityResource, HAS_LIFECYCLESTATE);
-        final String details = getFirstLiteralString(entityModel, entityResource, HAS_LIFECYCLESTATE_DETAILS);
-        ie.lifecycleState(new LifecycleState(details, LifecycleState.State.valueOf(state)));
+        ie.lifecycleState(lifecycle);
 
         return ie.build();
     }
 
+    /*
+     * the weight of an entity in the version cache is the number of records
+     * it has been assembled from
+     */
+    private static long weigh(final IntellectualEntity ie) {
+        long weight = 1;
+        if (ie.getRepresentations() == null) {
+            return weight;
+        }
+        for (Representation rep : ie.getRepresentations()) {
+            weight++;
+            if (rep.getFiles() == null) {
+                continue;
+            }
+            for (File f : rep.getFiles()) {
+                weight++;
+                if (f.getBitStreams() != null) {
+                    weight += f.getBitStreams().size();
+                }
+            }
+        }
+        return weight;
+    }
+
     /**
-     * Retrieve a {@link BitStream} saved in Fedora
+     * Resolve the path of a version of an {@link IntellectualEntity}
      * 
      * @param session
-     *            the {@link Session} to use for th operation
-     * @param bsUri
-     *            the {@link BitStream}'s URI
-     * @return the {@link BitStream} object saved in Fedora
+     *            the {@link Session} to use for the operation
+     * @param id
+     *            the id of the {@link IntellectualEntity}
+     * @param versionNumber
+     *            the version number or <code>null</code> for the current
+     *            version
+     * @return the path of the version in Fedora
      * @throws RepositoryException
-     *             if an error occurred while retrieving the {@link BitStream}
+     *             if the entity or the version does not exist
      */
-    public BitStream fetchBitStream(final Session session, final String bsUri) throws RepositoryException {
-        final BitStream.Builder bs = new BitStream.Builder();
+    public String fetchVersionPath(final Session session, final String id, final Integer versionNumber) throws RepositoryException {
+        if (versionNumber == null) {
+            return fetchCurrentVersionPath(session, id);
+        }
+        final String versionPath = ENTITY_FOLDER + "/" + id + "/version-" + versionNumber;
+        if (!session.nodeExists(versionPath)) {
+            throw new PathNotFoundException("Version " + versionNumber + " of entity '" + id + "' does not exist");
+        }
+        return versionPath;
+    }
+
+    /**
+     * Write a version of an {@link IntellectualEntity} as a METS document
+     * while it is read from Fedora. The stored metadata records are copied
+     * into the document without deserializing them, and only the paths of the
+     * files of a single {@link Representation} are held in memory. The tree
+     * of the version is walked once for each section of the document, and the
+     * IDs of the metadata records are derived from the positions of the
+     * objects in the tree
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param id
+     *            the id of the {@link IntellectualEntity}
+     * @param versionPath
+     *            the path of the version as returned by
+     *            {@link #fetchVersionPath(Session, String, Integer)}
+     * @param sink
+     *            the {@link OutputStream} to write the METS document to
+     * @throws RepositoryException
+     *             if the entity could not be read or the document could not
+     *             be written
+     */
+    public void writeEntity(final Session session, final String id, final String versionPath, final OutputStream sink) throws RepositoryException {
+        final Node entityNode = this.objectService.getObject(session, ENTITY_FOLDER + "/" + id).getNode();
+        final Node versionNode = session.getNode(versionPath);
+        final List<String> repPaths = getPaths(versionNode, HAS_REPRESENTATION);
+        final StreamingMetsWriter mets = new StreamingMetsWriter(sink);
+
+        mets.startEntity(id, getFirstString(entityNode, HAS_LIFECYCLESTATE));
+        final String descPath = datastreamPath(versionNode, "DESCRIPTIVE");
+        if (this.datastreamService.exists(session, descPath)) {
+            mets.descriptive("DMD-1", this.datastreamService.getDatastream(session, descPath).getContent());
+        }
+
+        /* the metadata records of all the representations, files and bitstreams */
+        mets.startAmdSec();
+        int r = 0;
+        for (String repPath : repPaths) {
+            final Node repNode = session.getNode(repPath);
+            final String repKey = "MD-" + (++r);
+            for (Section section : Section.values()) {
+                writeRecord(session, mets, repNode, section, repKey);
+            }
+            int f = 0;
+            for (String filePath : getPaths(repNode, HAS_FILE)) {
+                final Node fileNode = session.getNode(filePath);
+                final String fileKey = repKey + "-" + (++f);
+                writeRecord(session, mets, fileNode, Section.TECHNICAL, fileKey);
+                int b = 0;
+                for (String bsPath : getPaths(fileNode, HAS_BITSTREAM)) {
+                    writeRecord(session, mets, session.getNode(bsPath), Section.TECHNICAL, fileKey + "-" + (++b));
+                }
+            }
+        }
+        mets.endAmdSec();
+
+        /* the files of all the representations */
+        mets.startFileSec();
+        r = 0;
+        for (String repPath : repPaths) {
+            final String repKey = "MD-" + (++r);
+            int f = 0;
+            for (String filePath : getPaths(session.getNode(repPath), HAS_FILE)) {
+                final Node fileNode = session.getNode(filePath);
+                final String fileKey = repKey + "-" + (++f);
+                mets.startFile(filePath.substring(filePath.lastIndexOf('/') + 1), getFirstString(fileNode, HAS_MIMETYPE),
+                        recordIds(session, fileNode, fileKey, Section.TECHNICAL), contentUri(filePath, fileNode), getFirstString(fileNode, HAS_FILENAME));
+                int b = 0;
+                for (String bsPath : getPaths(fileNode, HAS_BITSTREAM)) {
+                    final Node bsNode = session.getNode(bsPath);
+                    mets.stream(bsPath.substring(bsPath.lastIndexOf('/') + 1), recordIds(session, bsNode, fileKey + "-" + (++b), Section.TECHNICAL));
+                }
+                mets.endFile();
+            }
+        }
+        mets.endFileSec();
+
+        /* the representations pointing to their files */
+        mets.startStructMap();
+        r = 0;
+        for (String repPath : repPaths) {
+            final Node repNode = session.getNode(repPath);
+            final String repKey = "MD-" + (++r);
+            mets.startRepresentation(repPath.substring(repPath.lastIndexOf('/') + 1), getFirstString(repNode, HAS_TITLE),
+                    recordIds(session, repNode, repKey, Section.values()));
+            for (String filePath : getPaths(repNode, HAS_FILE)) {
+                mets.filePointer(filePath.substring(filePath.lastIndexOf('/') + 1));
+            }
+            mets.endRepresentation();
+        }
+        mets.endStructMap();
+        mets.endEntity();
+    }
+
+    private void writeRecord(final Session session, final StreamingMetsWriter mets, final Node node, final Section section, final String key)
+            throws RepositoryException {
+        final String dsPath = datastreamPath(node, section.name());
+        if (this.datastreamService.exists(session, dsPath)) {
+            mets.record(section, key + "-" + section.name(), this.datastreamService.getDatastream(session, dsPath).getContent());
+        }
+    }
+
+    /*
+     * the IDs of the records written by writeRecord for the given sections of
+     * an object
+     */
+    private List<String> recordIds(final Session session, final Node node, final String key, final Section... sections) throws RepositoryException {
+        final List<String> ids = new ArrayList<>(sections.length);
+        for (Section section : sections) {
+            if (this.datastreamService.exists(session, datastreamPath(node, section.name()))) {
+                ids.add(key + "-" + section.name());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Retrieve a {@link BitStream} saved in Fedora
+     * 
+     * @param session
+     *            the {@link Session} to use for th operation
+     * @param bsUri
+     *            the {@link BitStream}'s URI
+     * @return the {@link BitStream} object saved in Fedora
+     * @throws RepositoryException
+     *             if an error occurred while retrieving the {@link BitStream}
+     */
+    public BitStream fetchBitStream(final Session session, final String bsUri) throws RepositoryException {
+        final BitStream.Builder bs = new BitStream.Builder();
         bs.identifier(new Identifier(bsUri.substring(bsUri.lastIndexOf('/') + 1)));
         bs.technical(fetchMetadata(session, bsUri + "/TECHNICAL"));
         return bs.build();
     }
 
+    /**
+     * Retrieve a {@link BitStream} of a version of an
+     * {@link IntellectualEntity} from Fedora
+     * 
+     * @param session
+     *            the {@link Session} to use for th operation
+     * @param entityId
+     *            the {@link IntellectualEntity}'s id
+     * @param repId
+     *            the {@link Representation}'s id
+     * @param fileId
+     *            the {@link File}'s id
+     * @param bsId
+     *            the {@link BitStream}'s id
+     * @param versionId
+     *            the version id or <code>null</code> for the current version
+     * @return the {@link BitStream} object saved in Fedora
+     * @throws RepositoryException
+     *             if an error occurred while retrieving the {@link BitStream}
+     */
+    public BitStream fetchBitStream(final Session session, final String entityId, final String repId, final String fileId, final String bsId,
+            final String versionId) throws RepositoryException {
+        final String versionPath;
+        if (versionId == null) {
+            versionPath = this.fetchCurrentVersionPath(session, entityId);
+        } else {
+            versionPath = ENTITY_FOLDER + "/" + entityId + "/version-" + versionId;
+        }
+        return fetchBitStream(session, resolvePath(session, versionPath, repId, fileId, bsId));
+    }
+
     /**
      * Retrieve the binary content of a {@link File}
      * 
@@ -270,19 +1064,17 @@ public class ConnectorService {
     public ContentTypeInputStream fetchBinaryFile(final Session session, final String entityId, final String repId, final String fileId, final String versionId)
             throws RepositoryException {
 
-        final String entityPath, dsPath;
+        final String versionPath;
         if (versionId == null) {
-            entityPath = ENTITY_FOLDER + "/" + entityId;
-            final FedoraObject fo = this.objectService.getObject(session, entityPath);
-            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-            final String uri = subjects.getSubject(entityPath).getURI();
-            final Model entityModel = SerializationUtils.unifyDatasetModel(fo.getPropertiesDataset(subjects));
-            dsPath = this.getCurrentVersionPath(entityModel, uri) + "/" + repId + "/" + fileId + "/DATA";
+            versionPath = this.fetchCurrentVersionPath(session, entityId);
         } else {
-            entityPath = ENTITY_FOLDER + "/" + entityId + "/version-" + versionId;
-            dsPath = entityPath + "/" + repId + "/" + fileId + "/DATA";
+            versionPath = ENTITY_FOLDER + "/" + entityId + "/version-" + versionId;
         }
 
+        /* the file and its binary might be shared with an earlier version */
+        final Node fileNode = session.getNode(resolvePath(session, versionPath, repId, fileId));
+        final String dsPath = datastreamPath(fileNode, "DATA");
+
         final Datastream ds = this.datastreamService.getDatastream(session, dsPath);
 
         return new ContentTypeInputStream(ds.getMimeType(), ds.getContent());
@@ -302,33 +1094,36 @@ public class ConnectorService {
      */
     public File fetchFile(final Session session, final String fileUri) throws RepositoryException {
         final File.Builder f = new File.Builder();
-        final FedoraObject fileObject = this.objectService.getObject(session, fileUri);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final Model fileModel = SerializationUtils.unifyDatasetModel(fileObject.getPropertiesDataset(subjects));
-        final Resource parent = fileModel.createResource(subjects.getSubject(fileObject.getPath()).getURI());
+        final Node fileNode = this.objectService.getObject(session, fileUri).getNode();
 
         /* fetch and add the properties and metadata from the repo */
-        f.technical(fetchMetadata(session, fileUri + "/TECHNICAL"));
+        f.technical(fetchMetadata(session, datastreamPath(fileNode, "TECHNICAL")));
         String fileId = fileUri.substring(fileUri.lastIndexOf('/') + 1);
         f.identifier(new Identifier(fileId));
-        f.filename(getFirstLiteralString(fileModel, parent, HAS_FILENAME));
-        f.mimetype(getFirstLiteralString(fileModel, parent, HAS_MIMETYPE));
-        String[] ids = fileUri.split("/");
-        if (this.referencedContent) {
-            f.uri(URI.create(getFirstLiteralString(fileModel, parent, HAS_REFERENCED_CONTENT)));
-        } else {
-            f.uri(URI.create(fedoraUrl + "/scape/file/" + ids[ids.length - 4] + "/" + ids[ids.length - 2] + "/" + ids[ids.length - 1]));
-        }
+        f.filename(getFirstString(fileNode, HAS_FILENAME));
+        f.mimetype(getFirstString(fileNode, HAS_MIMETYPE));
+        f.uri(URI.create(contentUri(fileUri, fileNode)));
         /* discover all the Bistreams and add them to the file */
         final List<BitStream> streams = new ArrayList<>();
-        for (String bsUri : getLiteralStrings(fileModel, parent, HAS_BITSTREAM)) {
-            streams.add(fetchBitStream(session, bsUri.substring(bsUri.indexOf('/'))));
+        for (String bsPath : getPaths(fileNode, HAS_BITSTREAM)) {
+            streams.add(fetchBitStream(session, bsPath));
         }
         f.bitStreams(streams);
 
         return f.build();
     }
 
+    /*
+     * the location of a file's content as exposed to clients
+     */
+    private String contentUri(final String filePath, final Node fileNode) throws RepositoryException {
+        if (this.referencedContent) {
+            return getFirstString(fileNode, HAS_REFERENCED_CONTENT);
+        }
+        final String[] ids = filePath.split("/");
+        return fedoraUrl + "/scape/file/" + ids[ids.length - 4] + "/" + ids[ids.length - 2] + "/" + ids[ids.length - 1];
+    }
+
     /**
      * Retrieve the current version of the metadata of an object saved in Fedora
      * 
@@ -341,31 +1136,46 @@ public class ConnectorService {
      * @throws RepositoryException
      */
     public Object fetchCurrentMetadata(final Session session, final String path) throws RepositoryException {
-
-        String[] ids = path.substring(ENTITY_FOLDER.length() + 1).split("/");
-        String entityPath = ENTITY_FOLDER + "/" + ids[0];
-        final FedoraObject entityObject = objectService.getObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(entityPath).getURI();
-
-        StringBuilder versionPath = new StringBuilder();
-        versionPath.append(this.getCurrentVersionPath(SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects)), uri));
-        for (int i = 1; i < ids.length; i++) {
-            versionPath.append("/");
-            versionPath.append(ids[i]);
-        }
-
         try {
-            if (!this.datastreamService.exists(session, versionPath.toString())) {
-                throw new PathNotFoundException("No metadata available for " + path);
-            }
-            final Datastream mdDs = this.datastreamService.getDatastream(session, versionPath.toString());
+            final Datastream mdDs = this.datastreamService.getDatastream(session, this.currentMetadataPath(session, path));
             return this.marshaller.deserialize(mdDs.getContent());
         } catch (JAXBException e) {
             throw new RepositoryException(e);
         }
     }
 
+    /**
+     * Retrieve the current version of the metadata of an object saved in Fedora
+     * as it has been stored, without deserializing it
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param path
+     *            the path of the object in Fedora
+     * @return a {@link ContentTypeInputStream} containing the serialized
+     *         metadata
+     * @throws RepositoryException
+     *             if the metadata could not be found
+     */
+    public ContentTypeInputStream fetchCurrentMetadataContent(final Session session, final String path) throws RepositoryException {
+        final Datastream mdDs = this.datastreamService.getDatastream(session, this.currentMetadataPath(session, path));
+        return new ContentTypeInputStream(mdDs.getMimeType(), mdDs.getContent());
+    }
+
+    private String currentMetadataPath(final Session session, final String path) throws RepositoryException {
+        String[] ids = path.substring(ENTITY_FOLDER.length() + 1).split("/");
+        if (ids.length < 2) {
+            throw new PathNotFoundException("No metadata available for " + path);
+        }
+        /* follow the objects shared with earlier versions down to the metadata */
+        final String objectPath = resolvePath(session, this.fetchCurrentVersionPath(session, ids[0]), Arrays.copyOfRange(ids, 1, ids.length - 1));
+        final String mdPath = datastreamPath(session.getNode(objectPath), ids[ids.length - 1]);
+        if (!this.datastreamService.exists(session, mdPath)) {
+            throw new PathNotFoundException("No metadata available for " + path);
+        }
+        return mdPath;
+    }
+
     /**
      * Retrieve the metadata of an object saved in Fedora
      * 
@@ -404,26 +1214,22 @@ public class ConnectorService {
      */
     public Representation fetchRepresentation(final Session session, final String repPath) throws RepositoryException {
         final Representation.Builder rep = new Representation.Builder();
-        final FedoraObject repObject = this.objectService.getObject(session, repPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(repPath).getURI();
-        final Model repModel = SerializationUtils.unifyDatasetModel(repObject.getPropertiesDataset(subjects));
-        final Resource parent = repModel.createResource(uri);
+        final Node repNode = this.objectService.getObject(session, repPath).getNode();
 
         /* find the title and id */
         rep.identifier(new Identifier(repPath.substring(repPath.lastIndexOf('/') + 1)));
-        rep.title(getFirstLiteralString(repModel, parent, HAS_TITLE));
+        rep.title(getFirstString(repNode, HAS_TITLE));
 
         /* find and add the metadata */
-        rep.technical(fetchMetadata(session, repObject.getPath() + "/TECHNICAL"));
-        rep.source(fetchMetadata(session, repObject.getPath() + "/SOURCE"));
-        rep.provenance(fetchMetadata(session, repObject.getPath() + "/PROVENANCE"));
-        rep.rights(fetchMetadata(session, repObject.getPath() + "/RIGHTS"));
+        rep.technical(fetchMetadata(session, datastreamPath(repNode, "TECHNICAL")));
+        rep.source(fetchMetadata(session, datastreamPath(repNode, "SOURCE")));
+        rep.provenance(fetchMetadata(session, datastreamPath(repNode, "PROVENANCE")));
+        rep.rights(fetchMetadata(session, datastreamPath(repNode, "RIGHTS")));
 
         /* add the individual files */
         final List<File> files = new ArrayList<>();
-        for (String fileUri : getLiteralStrings(repModel, parent, HAS_FILE)) {
-            files.add(fetchFile(session, fileUri.substring(fileUri.indexOf('/'))));
+        for (String filePath : getPaths(repNode, HAS_FILE)) {
+            files.add(fetchFile(session, filePath));
         }
 
         rep.files(files);
@@ -448,20 +1254,14 @@ public class ConnectorService {
 
     public Representation fetchRepresentation(final Session session, final String entityId, String repId, Integer versionId) throws RepositoryException {
 
-        String entityPath, repPath;
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final String versionPath;
         if (versionId == null) {
-            entityPath = ENTITY_FOLDER + "/" + entityId;
-            final FedoraObject fo = this.objectService.getObject(session, entityPath);
-            final String uri = subjects.getSubject(fo.getPath()).getURI();
-            final Model entityModel = SerializationUtils.unifyDatasetModel(fo.getPropertiesDataset(subjects));
-            repPath = this.getCurrentVersionPath(entityModel, uri) + "/" + repId;
+            versionPath = this.fetchCurrentVersionPath(session, entityId);
         } else {
-            entityPath = ENTITY_FOLDER + "/" + entityId + "/version-" + versionId;
-            repPath = entityPath + "/" + repId;
+            versionPath = ENTITY_FOLDER + "/" + entityId + "/version-" + versionId;
         }
 
-        return this.fetchRepresentation(session, repPath);
+        return this.fetchRepresentation(session, resolvePath(session, versionPath, repId));
     }
 
     /**
@@ -477,12 +1277,8 @@ public class ConnectorService {
      */
     public VersionList fetchVersionList(final Session session, final String entityId) throws RepositoryException {
         final String entityPath = ENTITY_FOLDER + "/" + entityId;
-        final FedoraObject entityObject = this.objectService.getObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(entityObject.getPath()).getURI();
-        final Model model = SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects));
-        final Resource subject = model.createResource(uri);
-        return new VersionList(entityId, getLiteralStrings(model, subject, HAS_VERSION));
+        final Node entityNode = this.objectService.getObject(session, entityPath).getNode();
+        return new VersionList(entityId, getStrings(entityNode, HAS_VERSION));
     }
 
     /**
@@ -518,68 +1314,224 @@ public class ConnectorService {
      *             if an error occurred while saving the
      *             {@link IntellectualEntity}
      */
-    public String addEntity(final Session session, final InputStream src, String entityId) throws RepositoryException {
+    public String addEntity(final Session session, final InputStream src, final String entityId) throws RepositoryException {
+        if (this.ingestChunkSize > 0) {
+            return addEntityChunked(session, src, entityId);
+        }
+        final String id = createEntity(session, src, entityId, null);
+        /* save the changes made to the objects */
+        session.save();
+        return id;
+    }
+
+    /*
+     * save the nodes of an entity in chunks, so that the transient changes do
+     * not grow with the size of the entity. The entity is not published
+     * before its current version is set by the last save, and whatever has
+     * been saved is purged if the ingest fails
+     */
+    private String addEntityChunked(final Session session, final InputStream src, final String entityId) throws RepositoryException {
+        final IngestChunks chunks = new IngestChunks(session, this.ingestChunkSize);
         try {
-            /* read the post body into an IntellectualEntity object */
-            final IntellectualEntity ie = this.marshaller.deserialize(IntellectualEntity.class, src);
-            final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
+            final String id = createEntity(session, src, entityId, chunks);
+            session.save();
+            return id;
+        } catch (RepositoryException | RuntimeException e) {
+            session.refresh(false);
+            if (chunks.saved && session.nodeExists(chunks.entityPath)) {
+                LOG.warn("purging the partially saved entity {}", chunks.entityPath);
+                session.getNode(chunks.entityPath).remove();
+                session.save();
+            }
+            throw e;
+        }
+    }
 
-            if (entityId == null) {
-                if (ie.getIdentifier() != null) {
-                    entityId = ie.getIdentifier().getValue();
-                    this.validateId(entityId);
-                } else {
-                    entityId = UUID.randomUUID().toString();
-                }
+    /* create the nodes of an entity without saving them, unless the ingest is chunked */
+    private String createEntity(final Session session, final InputStream src, String entityId, final IngestChunks chunks) throws RepositoryException {
+        if (this.streamingIngest) {
+            return createEntityStreaming(session, src, entityId, chunks);
+        }
+        try {
+            /* read the post body into an IntellectualEntity object */
+            return createEntity(session, this.marshaller.deserialize(IntellectualEntity.class, src), entityId, null, chunks);
+        } catch (JAXBException e) {
+            LOG.error(e.getLocalizedMessage(), e);
+            throw new RepositoryException(e);
+        }
+    }
 
+    /*
+     * create the nodes of a deserialized entity without saving them. The
+     * binaries of the entity's files may have been fetched already
+     */
+    private String createEntity(final Session session, final IntellectualEntity ie, String entityId, final Map<File, Future<java.io.File>> prefetched,
+            final IngestChunks chunks) throws RepositoryException {
+        if (entityId == null) {
+            if (ie.getIdentifier() != null) {
+                entityId = ie.getIdentifier().getValue();
+                this.validateId(entityId);
+            } else {
+                entityId = UUID.randomUUID().toString();
             }
-            /* create the entity top level object in fcrepo as a first version */
-            final String entityPath = ENTITY_FOLDER + "/" + entityId;
-            final String versionPath = entityPath + "/version-1";
 
-            if (this.objectService.exists(session, "/" + entityPath)) {
-                /* return a 409: Conflict result */
-                throw new ItemExistsException("Entity '" + entityId + "' already exists");
-            }
+        }
+        /* create the entity top level object in fcrepo as a first version */
+        final String entityPath = ENTITY_FOLDER + "/" + entityId;
+        final String versionPath = entityPath + "/version-1";
+
+        if (this.objectService.exists(session, "/" + entityPath)) {
+            /* return a 409: Conflict result */
+            throw new ItemExistsException("Entity '" + entityId + "' already exists");
+        }
 
-            final FedoraObject entityObject = objectService.createObject(session, entityPath);
-            entityObject.getNode().addMixin("scape:intellectual-entity");
+        final Node entityNode = objectService.createObject(session, entityPath).getNode();
+        entityNode.addMixin("scape:intellectual-entity");
+        if (chunks != null) {
+            chunks.staging(entityPath, entityNode);
+        }
 
-            final FedoraObject versionObject = objectService.createObject(session, versionPath);
-            versionObject.getNode().addMixin("scape:intellectual-entity-version");
+        final FedoraObject versionObject = objectService.createObject(session, versionPath);
+        final Node versionNode = versionObject.getNode();
+        versionNode.addMixin("scape:intellectual-entity-version");
 
-            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-            final String entityUri = subjects.getSubject(entityObject.getPath()).getURI();
-            final String versionUri = subjects.getSubject(versionObject.getPath()).getURI();
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final String versionUri = subjects.getSubject(versionObject.getPath()).getURI();
 
-            /* add the metadata datastream for descriptive metadata */
-            if (ie.getDescriptive() != null) {
-                addMetadata(session, ie.getDescriptive(), versionPath + "/DESCRIPTIVE");
-            }
+        /* add the metadata datastream for descriptive metadata */
+        if (ie.getDescriptive() != null) {
+            addMetadata(session, ie.getDescriptive(), versionPath + "/DESCRIPTIVE");
+        }
 
+        /* add all the representations */
+        setStrings(versionNode, HAS_REPRESENTATION, addRepresentations(session, ie.getRepresentations(), versionPath, prefetched, chunks));
 
-            /* add all the representations */
-            for (String repUri : addRepresentations(session, ie.getRepresentations(), versionPath)) {
-                sparql.append("INSERT DATA {<" + versionUri + "> " + prefix(HAS_REPRESENTATION) + " \"" + repUri + "\"};");
-            }
+        /* update the intellectual entity's properties */
+        setString(entityNode, HAS_LIFECYCLESTATE, LifecycleState.State.INGESTED.name());
+        setString(entityNode, HAS_LIFECYCLESTATE_DETAILS, "successfully ingested at " + new Date().getTime());
+        setString(entityNode, HAS_TYPE, "intellectualentity");
+        addString(entityNode, HAS_VERSION, versionUri);
+        setUri(entityNode, HAS_CURRENT_VERSION, versionUri);
+        return entityId;
+    }
 
-            /* update the intellectual entity's properties */
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_LIFECYCLESTATE) + " \"" + LifecycleState.State.INGESTED + "\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_LIFECYCLESTATE_DETAILS) + " \"successfully ingested at " + new Date().getTime() + "\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_TYPE) + " \"intellectualentity\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_VERSION) + " \"" + versionUri + "\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_CURRENT_VERSION) + "  <" + versionUri + "> };");
+    private String createEntityStreaming(final Session session, final InputStream src, final String entityId, final IngestChunks chunks)
+            throws RepositoryException {
+        /* create the nodes while reading the METS document */
+        final StreamingIngest ingest = new StreamingIngest(session, entityId, null, chunks);
+        ingest.read(src);
+
+        /* update the intellectual entity's properties */
+        final String versionUri = new DefaultIdentifierTranslator().getSubject(ingest.versionPath).getURI();
+        setString(ingest.entityNode, HAS_LIFECYCLESTATE, LifecycleState.State.INGESTED.name());
+        setString(ingest.entityNode, HAS_LIFECYCLESTATE_DETAILS, "successfully ingested at " + new Date().getTime());
+        setString(ingest.entityNode, HAS_TYPE, "intellectualentity");
+        addString(ingest.entityNode, HAS_VERSION, versionUri);
+        setUri(ingest.entityNode, HAS_CURRENT_VERSION, versionUri);
+        return ingest.entityId;
+    }
 
-            /* update the object and it's child's using sparql */
-            entityObject.updatePropertiesDataset(subjects, sparql.toString());
+    /**
+     * Save many {@link IntellectualEntity}s in Fedora, e.g. from a serialized
+     * {@link IntellectualEntityCollection}. The METS documents are read one at
+     * a time and the entities are saved in batches. If a batch can not be
+     * saved its entities are saved one by one, so that a failing entity does
+     * not affect the others. The outcome of each entity is reported to the
+     * {@link BulkIngestHandler} as soon as it is known. Unless the streaming
+     * ingest is enabled, the documents are parsed and their binaries are
+     * fetched by worker threads while the preceding entities are persisted
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param src
+     *            a stream containing the METS documents of the
+     *            {@link IntellectualEntity}s
+     * @param handler
+     *            the {@link BulkIngestHandler} receiving the results
+     * @throws RepositoryException
+     *             if the stream could not be read
+     */
+    public void addEntities(final Session session, final InputStream src, final BulkIngestHandler handler) throws RepositoryException {
+        if (!this.streamingIngest) {
+            new BulkIngest(session, handler).run(src);
+            return;
+        }
+        final List<byte[]> batch = new ArrayList<>();
+        final List<String> ids = new ArrayList<>();
+        try (final MetsCollectionReader reader = new MetsCollectionReader(src)) {
+            byte[] document;
+            while ((document = reader.next()) != null) {
+                try {
+                    ids.add(createEntity(session, new ByteArrayInputStream(document), null, null));
+                    batch.add(document);
+                } catch (ItemExistsException e) {
+                    /* nothing has been created for an existing entity */
+                    handler.failed(peekId(document), failureReason(e));
+                    continue;
+                } catch (RepositoryException | RuntimeException e) {
+                    /* the pending changes are lost, so the batch has to be redone */
+                    session.refresh(false);
+                    addEntitiesSingly(session, batch, handler);
+                    batch.clear();
+                    ids.clear();
+                    handler.failed(peekId(document), failureReason(e));
+                    continue;
+                }
+                if (batch.size() >= this.bulkCommitSize) {
+                    commitBatch(session, batch, ids, handler);
+                }
+            }
+            commitBatch(session, batch, ids, handler);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+    }
 
-            /* save the changes made to the objects */
+    private void commitBatch(final Session session, final List<byte[]> batch, final List<String> ids, final BulkIngestHandler handler) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
             session.save();
-            return entityId;
+            for (String id : ids) {
+                handler.ingested(id);
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            LOG.warn("bulk commit of {} entities failed, saving them one by one: {}", batch.size(), e.getMessage());
+            try {
+                session.refresh(false);
+            } catch (RepositoryException inner) {
+                LOG.error("Unable to discard the changes of the failed bulk commit", inner);
+            }
+            addEntitiesSingly(session, batch, handler);
+        }
+        batch.clear();
+        ids.clear();
+    }
 
-        } catch (JAXBException e) {
-            LOG.error(e.getLocalizedMessage(), e);
-            throw new RepositoryException(e);
+    private void addEntitiesSingly(final Session session, final List<byte[]> batch, final BulkIngestHandler handler) {
+        for (byte[] document : batch) {
+            try {
+                handler.ingested(addEntity(session, new ByteArrayInputStream(document), null));
+            } catch (RepositoryException | RuntimeException e) {
+                try {
+                    session.refresh(false);
+                } catch (RepositoryException inner) {
+                    LOG.error("Unable to discard the changes of a failed ingest", inner);
+                }
+                handler.failed(peekId(document), failureReason(e));
+            }
+        }
+    }
+
+    private static String peekId(final byte[] document) {
+        if (document == null) {
+            return null;
+        }
+        try {
+            return StreamingMetsReader.readObjectId(new ByteArrayInputStream(document));
+        } catch (RepositoryException e) {
+            return null;
         }
     }
 
@@ -607,46 +1559,82 @@ public class ConnectorService {
      *             {@link IntellectualEntity}
      */
     public void updateEntity(final Session session, final InputStream src, final String entityId) throws RepositoryException {
+        if (!this.streamingIngest) {
+            try {
+                /* read the post body into an IntellectualEntity object */
+                updateEntity(session, this.marshaller.deserialize(IntellectualEntity.class, src), entityId);
+                return;
+            } catch (JAXBException e) {
+                LOG.error(e.getLocalizedMessage(), e);
+                throw new RepositoryException(e);
+            }
+        }
         final String entityPath = ENTITY_FOLDER + "/" + entityId;
-        final FedoraObject entityObject = this.objectService.getObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(entityObject.getPath()).getURI();
-        /* fetch the current version number from the repo */
-        final String oldVersionPath = getCurrentVersionPath(SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects)), uri);
-        final String oldVersionUri = subjects.getSubject(oldVersionPath).getURI();
-        int versionNumber = Integer.parseInt(oldVersionPath.substring(oldVersionPath.lastIndexOf('-') + 1)) + 1;
-        final String newVersionPath = entityPath + "/version-" + versionNumber;
-        final String newVersionUri = subjects.getSubject(newVersionPath).getURI();
-
-        try {
-            /* read the post body into an IntellectualEntity object */
-            final IntellectualEntity ie = this.marshaller.deserialize(IntellectualEntity.class, src);
-            final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
+        final Node entityNode = this.objectService.getObject(session, entityPath).getNode();
+        final String newVersionPath = nextVersionPath(entityPath, getCurrentVersionPath(entityNode));
 
-            final FedoraObject versionObject = objectService.createObject(session, newVersionPath);
+        /* create the nodes of the new version while reading the METS document */
+        new StreamingIngest(session, entityId, newVersionPath, null).read(src);
+        publishVersion(session, entityNode, newVersionPath);
+    }
 
-            /* add the metadata datastream for descriptive metadata */
-            if (ie.getDescriptive() != null) {
-                addMetadata(session, ie.getDescriptive(), newVersionPath + "/DESCRIPTIVE");
+    /**
+     * Update an {@link IntellectualEntity} in Fedora using an
+     * {@link IntellectualEntity} object
+     * 
+     * @param session
+     *            the {@link Session} to use for the update operation
+     * @param ie
+     *            the updated {@link IntellectualEntity}
+     * @param entityId
+     *            the id of the {@link IntellectualEntity} to update
+     * @throws RepositoryException
+     *             if an error occurred while updating the
+     *             {@link IntellectualEntity}
+     */
+    public void updateEntity(final Session session, final IntellectualEntity ie, final String entityId) throws RepositoryException {
+        final String entityPath = ENTITY_FOLDER + "/" + entityId;
+        final Node entityNode = this.objectService.getObject(session, entityPath).getNode();
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        /* fetch the current version number from the repo */
+        final String oldVersionPath = getCurrentVersionPath(entityNode);
+        final String newVersionPath = nextVersionPath(entityPath, oldVersionPath);
+
+        final Node versionNode = objectService.createObject(session, newVersionPath).getNode();
+        versionNode.addMixin("scape:intellectual-entity-version");
+        final Node oldVersionNode = session.getNode(oldVersionPath);
+
+        /* add the metadata datastream for descriptive metadata unless it is unchanged */
+        addOrShareMetadata(session, ie.getDescriptive(), versionNode, oldVersionNode, "DESCRIPTIVE");
+
+        /* add the representations which have changed and reference the others */
+        final Map<String, String> oldReps = pathsById(oldVersionNode, HAS_REPRESENTATION);
+        final List<String> repUris = new ArrayList<>();
+        if (ie.getRepresentations() != null) {
+            for (Representation rep : ie.getRepresentations()) {
+                final String oldRepPath = (rep.getIdentifier() != null) ? oldReps.get(rep.getIdentifier().getValue()) : null;
+                if (oldRepPath == null) {
+                    repUris.add(subjects.getSubject(addRepresentation(session, rep, newVersionPath, null, null).getPath()).getURI());
+                } else {
+                    repUris.add(addRepresentationVersion(session, rep, newVersionPath, session.getNode(oldRepPath), entityId));
+                }
             }
+        }
+        setStrings(versionNode, HAS_REPRESENTATION, repUris);
+        publishVersion(session, entityNode, newVersionPath);
+    }
 
-            /* add all the representations */
-            addRepresentations(session, ie.getRepresentations(), newVersionPath);
-
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_VERSION) + " <" + newVersionUri + ">};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_CURRENT_VERSION) + "  <" + newVersionUri + ">};");
-
-            /* update the object and it's child's using sparql */
-            entityObject.updatePropertiesDataset(subjects, sparql.toString());
-
-            /* save the changes made to the objects */
-            session.save();
+    /* make a new version the current version of an entity and save it */
+    private void publishVersion(final Session session, final Node entityNode, final String versionPath) throws RepositoryException {
+        final String versionUri = new DefaultIdentifierTranslator().getSubject(versionPath).getURI();
 
-        } catch (JAXBException e) {
-            LOG.error(e.getLocalizedMessage(), e);
-            throw new RepositoryException(e);
-        }
+        /* update the intellectual entity's properties */
+        addString(entityNode, HAS_VERSION, versionUri);
+        setUri(entityNode, HAS_CURRENT_VERSION, versionUri);
 
+        /* save the changes made to the objects */
+        session.save();
+        this.currentVersionChanged(entityNode.getName(), versionPath);
     }
 
     /**
@@ -666,28 +1654,59 @@ public class ConnectorService {
      */
     public void updateRepresentation(Session session, String entityId, String repId, InputStream src) throws RepositoryException {
         try {
-            final Representation rep = (Representation) this.marshaller.deserialize(src);
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            if (orig.getRepresentations() != null) {
-                for (Representation r : orig.getRepresentations()) {
-                    if (!r.getIdentifier().getValue().equals(repId)) {
-                        representations.add(r);
-                    }
-                }
-                representations.add(rep);
-            }
-
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
-
+            updateRepresentation(session, entityId, repId, (Representation) this.marshaller.deserialize(src));
         } catch (JAXBException e) {
             throw new RepositoryException(e);
         }
+    }
+
+    /**
+     * Update a {@link Representation} in Fedora using a {@link Representation}
+     * object. The other representations and the descriptive metadata of the
+     * {@link IntellectualEntity} are shared with the new version
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity}
+     * @param repId
+     *            the id of the {@link Representation}
+     * @param rep
+     *            the updated {@link Representation}
+     * @throws RepositoryException
+     *             if an error occurred while updating the
+     *             {@link Representation}
+     */
+    public void updateRepresentation(final Session session, final String entityId, final String repId, final Representation rep)
+            throws RepositoryException {
+        final String entityPath = ENTITY_FOLDER + "/" + entityId;
+        final Node entityNode = this.objectService.getObject(session, entityPath).getNode();
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final String oldVersionPath = getCurrentVersionPath(entityNode);
+        final String newVersionPath = nextVersionPath(entityPath, oldVersionPath);
+
+        final Node versionNode = objectService.createObject(session, newVersionPath).getNode();
+        versionNode.addMixin("scape:intellectual-entity-version");
+        final Node oldVersionNode = session.getNode(oldVersionPath);
+        final String descPath = datastreamPath(oldVersionNode, "DESCRIPTIVE");
+        if (this.datastreamService.exists(session, descPath)) {
+            addString(versionNode, HAS_SHARED, subjects.getSubject(descPath).getURI());
+        }
 
+        /* the updated representation replaces the old one at the end of the list */
+        final Map<String, String> oldReps = pathsById(oldVersionNode, HAS_REPRESENTATION);
+        final String oldRepPath = oldReps.remove(repId);
+        final List<String> repUris = new ArrayList<>(oldReps.size() + 1);
+        for (String path : oldReps.values()) {
+            repUris.add(subjects.getSubject(path).getURI());
+        }
+        if (oldRepPath != null && rep.getIdentifier() != null && rep.getIdentifier().getValue().equals(repId)) {
+            repUris.add(addRepresentationVersion(session, rep, newVersionPath, session.getNode(oldRepPath), entityId));
+        } else {
+            repUris.add(subjects.getSubject(addRepresentation(session, rep, newVersionPath, null, null).getPath()).getURI());
+        }
+        setStrings(versionNode, HAS_REPRESENTATION, repUris);
+        publishVersion(session, entityNode, newVersionPath);
     }
 
     /**
@@ -705,33 +1724,110 @@ public class ConnectorService {
      */
     public void updateMetadata(final Session session, final String path, final InputStream src) throws RepositoryException {
         String[] ids = path.split("/");
-        final String entityId = ids[0];
         final String metadataName = ids[ids.length - 1];
         switch (ids.length) {
         case 2:
             /* it's entity metadata */
-            updateEntityMetadata(session, entityId, metadataName, src);
+            if (!metadataName.equals("DESCRIPTIVE")) {
+                throw new RepositoryException("Unknown metadata type " + metadataName);
+            }
             break;
         case 3:
             /* it's rep metadata */
-            updateRepresentationMetadata(session, entityId, ids[1], metadataName, src);
+            if (!(metadataName.equals("TECHNICAL") || metadataName.equals("SOURCE") || metadataName.equals("PROVENANCE") || metadataName.equals("RIGHTS"))) {
+                throw new RepositoryException("Unknown metadata type " + metadataName);
+            }
             break;
         case 4:
-            /* it's file metadata */
-            updateFileMetadata(session, entityId, ids[1], ids[2], metadataName, src);
-            break;
         case 5:
-            /* it's bitstream metadata */
-            updateBitStreamMetadata(session, entityId, ids[1], ids[2], ids[3], metadataName, src);
+            /* it's file or bitstream metadata */
+            if (!metadataName.equals("TECHNICAL")) {
+                throw new RepositoryException("Unknown metadata type " + metadataName);
+            }
             break;
         default:
             throw new RepositoryException("Unable to parse path for metadata update");
         }
+        try {
+            final Object metadata = this.marshaller.deserialize(src);
+            addMetadataVersion(session, ids[0], Arrays.copyOfRange(ids, 1, ids.length - 1), metadataName, metadata);
+        } catch (JAXBException e) {
+            throw new RepositoryException(e);
+        }
     }
 
-    /**
-     * Queue an {@link IntellectualEntity} for asynchronous storage in Fedora
-     * 
+    /*
+     * add a new version of an entity in which a single metadata record has
+     * been replaced. Only the objects on the path to the record are written,
+     * everything else is shared with the previous version
+     */
+    private void addMetadataVersion(final Session session, final String entityId, final String[] ids, final String metadataName, final Object metadata)
+            throws RepositoryException {
+        final String entityPath = ENTITY_FOLDER + "/" + entityId;
+        final Node entityNode = this.objectService.getObject(session, entityPath).getNode();
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final String oldVersionPath = getCurrentVersionPath(entityNode);
+        final String newVersionPath = nextVersionPath(entityPath, oldVersionPath);
+
+        /* the objects from the version down to the one owning the record */
+        final String[] mixins = { "scape:intellectual-entity-version", "scape:representation", "scape:file", "scape:bitstream" };
+        final String[] references = { HAS_REPRESENTATION, HAS_FILE, HAS_BITSTREAM };
+        final String[] oldPaths = new String[ids.length + 1];
+        final String[] newPaths = new String[ids.length + 1];
+        for (int i = 0; i <= ids.length; i++) {
+            oldPaths[i] = resolvePath(session, oldVersionPath, Arrays.copyOf(ids, i));
+            newPaths[i] = (i == 0) ? newVersionPath : newPaths[i - 1] + "/" + ids[i - 1];
+        }
+
+        for (int i = 0; i <= ids.length; i++) {
+            final Node oldNode = session.getNode(oldPaths[i]);
+            final Node node = this.objectService.createObject(session, newPaths[i]).getNode();
+            node.addMixin(mixins[i]);
+            copyProperties(oldNode, node);
+            if (i < ids.length) {
+                /* point to the new version of the child instead of the old one */
+                final List<String> uris = new ArrayList<>(getStrings(oldNode, references[i]));
+                final int index = uris.indexOf(subjects.getSubject(oldPaths[i + 1]).getURI());
+                if (index < 0) {
+                    throw new PathNotFoundException("No object " + ids[i] + " in " + oldPaths[i]);
+                }
+                uris.set(index, subjects.getSubject(newPaths[i + 1]).getURI());
+                setStrings(node, references[i], uris);
+            }
+            for (String name : new String[] { "DESCRIPTIVE", "TECHNICAL", "SOURCE", "RIGHTS", "PROVENANCE", "DATA" }) {
+                final String dsPath = datastreamPath(oldNode, name);
+                if ((i < ids.length || !name.equals(metadataName)) && this.datastreamService.exists(session, dsPath)) {
+                    addString(node, HAS_SHARED, subjects.getSubject(dsPath).getURI());
+                }
+            }
+        }
+        addMetadata(session, metadata, newPaths[ids.length] + "/" + metadataName);
+        publishVersion(session, entityNode, newVersionPath);
+    }
+
+    /* copy the scape properties of an object except the references to shared datastreams */
+    private static void copyProperties(final Node from, final Node to) throws RepositoryException {
+        for (final PropertyIterator props = from.getProperties(SCAPE_PREFIX + ":*"); props.hasNext();) {
+            final Property p = props.nextProperty();
+            if (p.getName().equals(prefix(HAS_SHARED))) {
+                continue;
+            }
+            if (p.isMultiple()) {
+                to.setProperty(p.getName(), p.getValues());
+            } else {
+                to.setProperty(p.getName(), p.getValue());
+            }
+        }
+    }
+
+    private static String nextVersionPath(final String entityPath, final String currentVersionPath) {
+        final int versionNumber = Integer.parseInt(currentVersionPath.substring(currentVersionPath.lastIndexOf('-') + 1)) + 1;
+        return entityPath + "/version-" + versionNumber;
+    }
+
+    /**
+     * Queue an {@link IntellectualEntity} for asynchronous storage in Fedora
+     * 
      * @param session
      *            the {@link Session} to use for ading the
      *            {@link IntellectualEntity} to the asynchronous queue
@@ -744,39 +1840,79 @@ public class ConnectorService {
      *             {@link IntellectualEntity} to the asynchronous queue
      */
     public String queueEntityForIngest(final Session session, final InputStream src) throws RepositoryException {
+        return queueEntityForIngest(session, src, DEFAULT_LANE);
+    }
+
+    /**
+     * Queue an {@link IntellectualEntity} for asynchronous storage in Fedora
+     * in a given lane of the queue
+     * 
+     * @param session
+     *            the {@link Session} to use for ading the
+     *            {@link IntellectualEntity} to the asynchronous queue
+     * @param src
+     *            the {@link IntellectualEntity}'s METS representation
+     * @param lane
+     *            the lane of the queue, see {@link #getQueueLanes()}
+     * @return the id of the {@link IntellectualEntity} which can be used to
+     *         retrieve the status of the asynchronous storing
+     * @throws RepositoryException
+     *             if the lane does not exist or an error occurred while adding
+     *             the {@link IntellectualEntity} to the asynchronous queue
+     */
+    public String queueEntityForIngest(final Session session, final InputStream src, final String lane) throws RepositoryException {
+        if (!this.laneWeights.containsKey(lane)) {
+            throw new RepositoryException("Unknown ingest queue lane '" + lane + "'");
+        }
+        try {
+            /*
+             * only peek at the METS header for the id and stream the document
+             * into the queue as is. The document is validated by the worker
+             * ingesting it
+             */
+            final byte[] header = new byte[QUEUE_HEADER_SIZE];
+            final int len = IOUtils.read(src, header);
+            String id = StreamingMetsReader.readObjectId(new ByteArrayInputStream(header, 0, len));
+            if (id == null || id.length() == 0) {
+                id = UUID.randomUUID().toString();
+            }
+            return enqueue(session, id, new SequenceInputStream(new ByteArrayInputStream(header, 0, len), src), lane);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    private String enqueue(final Session session, final String id, final InputStream body, final String lane) throws RepositoryException {
         try {
-            /* try to deserialize and extraxt an existing id */
-            IntellectualEntity ie = this.marshaller.deserialize(IntellectualEntity.class, src);
-            String id = (ie.getIdentifier() == null || ie.getIdentifier().getValue() == null || ie.getIdentifier().getValue().length() == 0) ? UUID
-                    .randomUUID().toString() : ie.getIdentifier().getValue();
-
-            /* copy the data to a temporary node */
-            ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ie, sink);
             final FedoraObject queue = this.objectService.getObject(session, QUEUE_NODE);
-            if (this.objectService.exists(session,ENTITY_FOLDER + "/" + id)) {
+            if (this.objectService.exists(session, ENTITY_FOLDER + "/" + id) && !purgeUnpublished(session, ENTITY_FOLDER + "/" + id)) {
                 throw new RepositoryException("Unable to queue item with id " + id
                         + " for ingest since an intellectual entity with that id already esists in the repository");
             }
             if (this.datastreamService.exists(session, QUEUE_NODE + "/" + id)) {
                 throw new RepositoryException("Unable to queue item with id " + id + " for ingest since an item with that id is alread in the queue");
             }
-            final Node item = this.datastreamService.createDatastream(session, QUEUE_NODE + "/" + id, "text/xml", null, new ByteArrayInputStream(sink.toByteArray())).getNode();
+            if (this.datastreamService.exists(session, DEAD_LETTER_NODE + "/" + id)) {
+                /* a resubmission replaces the failed item */
+                this.nodeService.deleteObject(session, DEAD_LETTER_NODE + "/" + id);
+            }
+            final Datastream ds = this.datastreamService.createDatastream(session, QUEUE_NODE + "/" + id, "text/xml", null, body);
+            final Node item = ds.getNode();
             item.addMixin("scape:async-queue-item");
+            setString(item, HAS_INGEST_STATE, "QUEUED");
+            setString(item, HAS_INGEST_LANE, lane);
             /* update the ingest queue */
-            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-            final String queueUri = subjects.getSubject(QUEUE_NODE).getURI();
-            final String itemUri = subjects.getSubject(item.getPath()).getURI();
-            final StringBuilder sparql = new StringBuilder("PREFIX scape: <http://scapeproject.eu/model#> ");
-            sparql.append("INSERT DATA {<" + queueUri + "> " + prefix(HAS_ITEM) + " \"" + itemUri + "\"};");
-            sparql.append("INSERT DATA {<" + itemUri + "> " + prefix(HAS_INGEST_STATE) + " \"QUEUED\"};");
-            queue.updatePropertiesDataset(subjects, sparql.toString());
-            session.save();
+            final String itemUri = new DefaultIdentifierTranslator().getSubject(item.getPath()).getURI();
+            synchronized (this.queueLock) {
+                addString(queue.getNode(), HAS_ITEM, itemUri);
+                session.save();
+                loadQueueIndex(session);
+                this.queueIndex.put(item.getPath(), "QUEUED", lane, ds.getContentSize(), ds.getCreatedDate().getTime());
+            }
             return id;
-        } catch (InvalidChecksumException | JAXBException e) {
+        } catch (InvalidChecksumException e) {
             throw new RepositoryException(e);
         }
-
     }
 
     /**
@@ -793,22 +1929,16 @@ public class ConnectorService {
      */
     public LifecycleState fetchLifeCycleState(Session session, String entityId) throws RepositoryException {
         /* check the async queue for the entity */
-        final FedoraObject queueObject = this.objectService.getObject(session, QUEUE_NODE);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(queueObject.getPath()).getURI();
-        final Model queueModel = SerializationUtils.unifyDatasetModel(queueObject.getPropertiesDataset(subjects));
-        final Resource parent = queueModel.createResource(uri);
-        final List<String> asyncIds = this.getLiteralStrings(queueModel, parent, HAS_ITEM);
         final String itemPath = QUEUE_NODE + "/" + entityId;
-        if (asyncIds.contains(subjects.getSubject(itemPath).getURI())) {
-            final String state = this.datastreamService.getDatastream(session, itemPath).getNode()
-                    .getProperties(prefix(HAS_INGEST_STATE))
-                    .nextProperty()
-                    .getString();
+        if (this.datastreamService.exists(session, itemPath)) {
+            final Node itemNode = this.datastreamService.getDatastream(session, itemPath).getNode();
+            final String state = getFirstString(itemNode, HAS_INGEST_STATE);
 
             switch (state) {
             case "INGESTING":
                 return new LifecycleState("", State.INGESTING);
+            case "RETRY_WAIT":
+                return new LifecycleState(getFirstString(itemNode, HAS_INGEST_FAILURE), State.INGESTING);
             case "INGEST_FAILED":
                 return new LifecycleState("", State.INGEST_FAILED);
             case "QUEUED":
@@ -818,15 +1948,18 @@ public class ConnectorService {
             }
         }
 
+        /* a failed submission is reported even if an entity with the same id exists */
+        if (this.datastreamService.exists(session, DEAD_LETTER_NODE + "/" + entityId)) {
+            final Node itemNode = this.datastreamService.getDatastream(session, DEAD_LETTER_NODE + "/" + entityId).getNode();
+            return new LifecycleState(getFirstString(itemNode, HAS_INGEST_FAILURE), State.INGEST_FAILED);
+        }
+
         /* check if the entity exists */
         if (this.objectService.exists(session, ENTITY_FOLDER + "/" + entityId)) {
             /* fetch the state form the entity itself */
-            final FedoraObject entityObject = this.objectService.getObject(session, ENTITY_FOLDER + "/" + entityId);
-            final String entityUri = subjects.getSubject(entityObject.getPath()).getURI();
-            final Model entityModel = SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects));
-            final Resource subject = entityModel.createResource(entityUri);
-            final String state = this.getFirstLiteralString(entityModel, subject, HAS_LIFECYCLESTATE);
-            final String details = this.getFirstLiteralString(entityModel, subject, HAS_LIFECYCLESTATE_DETAILS);
+            final Node entityNode = this.objectService.getObject(session, ENTITY_FOLDER + "/" + entityId).getNode();
+            final String state = getFirstString(entityNode, HAS_LIFECYCLESTATE);
+            final String details = getFirstString(entityNode, HAS_LIFECYCLESTATE_DETAILS);
             return new LifecycleState(details, LifecycleState.State.valueOf(state));
         } else {
             throw new ItemNotFoundException("Unable to find lifecycle for '" + entityId + "'");
@@ -835,38 +1968,592 @@ public class ConnectorService {
     }
 
     /**
-     * This method checks the asynhcronous storage queue for work at a fixed
-     * rate using Spring's {@link Scheduled} annotation
+     * Claim the next queued item for ingestion by setting its ingest state to
+     * <code>INGESTING</code> and leasing it to a worker. Claims are serialized
+     * so that an item is handed to exactly one of the workers of the
+     * {@link AsyncIngestEngine}
      * 
+     * @param session
+     *            the {@link Session} of the worker claiming the item
+     * @param owner
+     *            the id of the worker claiming the item
+     * @param leaseExpiry
+     *            the time in milliseconds since the epoch at which the lease
+     *            expires unless it is renewed
+     * @return the path of the claimed queue item or <code>null</code> if no
+     *         item is queued
      * @throws RepositoryException
-     *             if an error occurred while chekcing the queue
+     *             if an error occurred while claiming an item
      */
-    @Scheduled(fixedDelay = 1000, initialDelay = 5000)
-    public void ingestFromQueue() throws RepositoryException {
-        Session session = sessionFactory.getInternalSession();
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        if (!this.objectService.exists(session, QUEUE_NODE)) {
-            return;
+    public String claimQueuedItem(final Session session, final String owner, final long leaseExpiry) throws RepositoryException {
+        final List<String> items = claimQueuedItems(session, owner, leaseExpiry, 1, Long.MAX_VALUE);
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    /**
+     * Claim a batch of queued items for ingestion, see
+     * {@link #claimQueuedItem(Session, String, long)}. Items are claimed until
+     * either the maximum number of items or the maximum number of bytes is
+     * reached, but at least one item is claimed if the queue is not empty
+     * 
+     * @param session
+     *            the {@link Session} of the worker claiming the items
+     * @param owner
+     *            the id of the worker claiming the items
+     * @param leaseExpiry
+     *            the time in milliseconds since the epoch at which the leases
+     *            expire unless they are renewed
+     * @param maxItems
+     *            the maximum number of items to claim
+     * @param maxBytes
+     *            the maximum size of the claimed items' documents in bytes
+     * @return a {@link List} containing the paths of the claimed queue items
+     * @throws RepositoryException
+     *             if an error occurred while claiming the items
+     */
+    public List<String> claimQueuedItems(final Session session, final String owner, final long leaseExpiry, final int maxItems, final long maxBytes)
+            throws RepositoryException {
+        synchronized (this.queueLock) {
+            final List<String> claimed = new ArrayList<>();
+            loadQueueIndex(session);
+            long bytes = 0;
+            String lane;
+            while (claimed.size() < maxItems && bytes < maxBytes && (lane = nextLane()) != null) {
+                final String item = this.queueIndex.first("QUEUED", lane);
+                /* the index may be stale if the item has been changed elsewhere */
+                if (!this.datastreamService.exists(session, item)) {
+                    this.queueIndex.remove(item);
+                    continue;
+                }
+                final Node itemNode = this.datastreamService.getDatastream(session, item).getNode();
+                final String state = getFirstString(itemNode, HAS_INGEST_STATE);
+                if (!state.equals("QUEUED")) {
+                    this.queueIndex.put(item, state);
+                    continue;
+                }
+                /* update the ingest state so that it won't get ingested twice */
+                setString(itemNode, HAS_INGEST_STATE, "INGESTING");
+                setString(itemNode, HAS_INGEST_OWNER, owner);
+                setString(itemNode, HAS_INGEST_LEASE_EXPIRY, String.valueOf(leaseExpiry));
+                /* move the item out of the queued items until the claim is saved */
+                this.queueIndex.put(item, "CLAIMING");
+                claimed.add(item);
+                bytes += this.queueIndex.getSize(item);
+            }
+            if (claimed.isEmpty()) {
+                return claimed;
+            }
+            try {
+                session.save();
+            } catch (RepositoryException e) {
+                session.refresh(false);
+                for (String item : claimed) {
+                    this.queueIndex.put(item, "QUEUED");
+                }
+                throw e;
+            }
+            for (String item : claimed) {
+                this.queueIndex.put(item, "INGESTING");
+            }
+            return claimed;
+        }
+    }
+
+    /**
+     * Extend the lease of a claimed queue item
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation. This must not
+     *            be the session the item is ingested with, since that one
+     *            holds the pending changes of the ingest
+     * @param item
+     *            the path of the queue item
+     * @param owner
+     *            the id of the worker holding the lease
+     * @param leaseExpiry
+     *            the new expiry time in milliseconds since the epoch
+     * @return <code>true</code> if the lease has been extended,
+     *         <code>false</code> if the item is not leased to the owner
+     *         anymore
+     * @throws RepositoryException
+     *             if an error occurred while updating the item
+     */
+    public boolean renewLease(final Session session, final String item, final String owner, final long leaseExpiry) throws RepositoryException {
+        synchronized (this.queueLock) {
+            if (!isLeasedTo(session, item, owner)) {
+                return false;
+            }
+            setString(this.datastreamService.getDatastream(session, item).getNode(), HAS_INGEST_LEASE_EXPIRY, String.valueOf(leaseExpiry));
+            session.save();
+            return true;
+        }
+    }
+
+    /**
+     * Return the items whose lease has expired to the queue, e.g. because the
+     * worker ingesting them died. The attempt counter of a returned item is
+     * incremented and items which have used up their attempts are moved to
+     * the dead letter node. Items whose entity has been published already are
+     * removed from the queue instead of being ingested a second time, while
+     * an entity left unpublished by an unfinished chunked ingest is purged
+     * before its item is retried
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param now
+     *            the current time in milliseconds since the epoch
+     * @return the number of items returned to the queue
+     * @throws RepositoryException
+     *             if an error occurred while updating the queue
+     */
+    public int reapExpiredLeases(final Session session, final long now) throws RepositoryException {
+        synchronized (this.queueLock) {
+            loadQueueIndex(session);
+            int reaped = 0;
+            final List<String> requeued = new ArrayList<>();
+            for (String item : this.queueIndex.items("INGESTING")) {
+                if (!this.datastreamService.exists(session, item)) {
+                    this.queueIndex.remove(item);
+                    continue;
+                }
+                final Node itemNode = this.datastreamService.getDatastream(session, item).getNode();
+                /* items claimed before leases were introduced have no expiry */
+                final List<String> expiry = getStrings(itemNode, HAS_INGEST_LEASE_EXPIRY);
+                if (!expiry.isEmpty() && Long.parseLong(expiry.get(0)) > now) {
+                    continue;
+                }
+                final String entityId = item.substring(QUEUE_NODE.length() + 1);
+                if (this.objectService.exists(session, ENTITY_FOLDER + "/" + entityId) && !purgeUnpublished(session, ENTITY_FOLDER + "/" + entityId)) {
+                    /* the ingest succeeded but the item has not been removed */
+                    LOG.info("removing expired queue item {} since the entity has been ingested already", item);
+                    deleteFromQueue(session, item);
+                    continue;
+                }
+                final List<String> attempts = getStrings(itemNode, HAS_INGEST_ATTEMPTS);
+                final int attempt = attempts.isEmpty() ? 1 : Integer.parseInt(attempts.get(0)) + 1;
+                if (attempt >= this.retryMaxAttempts) {
+                    LOG.error("lease of queue item {} expired {} times, giving up", item, attempt);
+                    deadLetter(session, item, "The lease of the item expired " + attempt + " times");
+                    continue;
+                }
+                LOG.warn("lease of queue item {} held by {} expired, returning it to the queue (attempt {})", item,
+                        getStrings(itemNode, HAS_INGEST_OWNER), attempt);
+                setString(itemNode, HAS_INGEST_STATE, "QUEUED");
+                setString(itemNode, HAS_INGEST_ATTEMPTS, String.valueOf(attempt));
+                removeProperty(itemNode, HAS_INGEST_OWNER);
+                removeProperty(itemNode, HAS_INGEST_LEASE_EXPIRY);
+                requeued.add(item);
+                reaped++;
+            }
+            session.save();
+            for (String item : requeued) {
+                this.queueIndex.put(item, "QUEUED");
+            }
+            return reaped;
+        }
+    }
+
+    /**
+     * Return the items waiting for a retry whose backoff has elapsed to the
+     * queue
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param now
+     *            the current time in milliseconds since the epoch
+     * @return the number of items returned to the queue
+     * @throws RepositoryException
+     *             if an error occurred while updating the queue
+     */
+    public int requeueDueRetries(final Session session, final long now) throws RepositoryException {
+        synchronized (this.queueLock) {
+            if (!this.queueIndex.isLoaded() || this.queueIndex.count("RETRY_WAIT") == 0) {
+                return 0;
+            }
+            final List<String> due = new ArrayList<>();
+            for (String item : this.queueIndex.items("RETRY_WAIT")) {
+                if (!this.datastreamService.exists(session, item)) {
+                    this.queueIndex.remove(item);
+                    continue;
+                }
+                final Node itemNode = this.datastreamService.getDatastream(session, item).getNode();
+                final List<String> notBefore = getStrings(itemNode, HAS_INGEST_NOT_BEFORE);
+                if (!notBefore.isEmpty() && Long.parseLong(notBefore.get(0)) > now) {
+                    continue;
+                }
+                setString(itemNode, HAS_INGEST_STATE, "QUEUED");
+                removeProperty(itemNode, HAS_INGEST_NOT_BEFORE);
+                due.add(item);
+            }
+            session.save();
+            for (String item : due) {
+                this.queueIndex.put(item, "QUEUED");
+            }
+            return due.size();
+        }
+    }
+
+    /**
+     * Move items from the dead letter node back to the ingest queue. The
+     * attempt counters of the items are reset
+     * 
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param limit
+     *            the maximum number of items to return to the queue
+     * @return the ids of the items returned to the queue
+     * @throws RepositoryException
+     *             if an error occurred while updating the queue
+     */
+    public List<String> redriveDeadLetters(final Session session, final int limit) throws RepositoryException {
+        synchronized (this.queueLock) {
+            final Node deadLetters = this.objectService.getObject(session, DEAD_LETTER_NODE).getNode();
+            final List<String> ids = new ArrayList<>();
+            final NodeIterator it = deadLetters.getNodes();
+            while (it.hasNext() && ids.size() < limit) {
+                final Node n = it.nextNode();
+                if (n.isNodeType("scape:async-queue-item")) {
+                    ids.add(n.getName());
+                }
+            }
+            final Node queueNode = this.objectService.getObject(session, QUEUE_NODE).getNode();
+            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+            final List<String> redriven = new ArrayList<>();
+            for (String id : ids) {
+                final String source = DEAD_LETTER_NODE + "/" + id;
+                final String target = QUEUE_NODE + "/" + id;
+                if ((this.objectService.exists(session, ENTITY_FOLDER + "/" + id) && !purgeUnpublished(session, ENTITY_FOLDER + "/" + id))
+                        || this.datastreamService.exists(session, target)) {
+                    /* the entity has been ingested or queued again in the meantime */
+                    this.nodeService.deleteObject(session, source);
+                    continue;
+                }
+                final Node itemNode = this.datastreamService.getDatastream(session, source).getNode();
+                setString(itemNode, HAS_INGEST_STATE, "QUEUED");
+                removeProperty(itemNode, HAS_INGEST_ATTEMPTS);
+                removeProperty(itemNode, HAS_INGEST_FAILURE);
+                session.move(source, target);
+                addString(queueNode, HAS_ITEM, subjects.getSubject(target).getURI());
+                redriven.add(id);
+            }
+            session.save();
+            loadQueueIndex(session);
+            for (String id : redriven) {
+                final Datastream ds = this.datastreamService.getDatastream(session, QUEUE_NODE + "/" + id);
+                this.queueIndex.put(ds.getPath(), "QUEUED", laneOf(ds.getNode()), ds.getContentSize(), ds.getCreatedDate().getTime());
+            }
+            LOG.info("returned {} items from the dead letter node to the ingest queue", redriven.size());
+            return redriven;
+        }
+    }
+
+    /**
+     * Ingest a queue item claimed by
+     * {@link #claimQueuedItem(Session, String, long)} and remove it from the
+     * queue. If the ingest fails all changes are discarded. Items which failed
+     * because of a transient error are retried with an exponential backoff,
+     * the others are moved to the dead letter node together with the reason
+     * of the failure. Once the entity is saved only the removal of the item
+     * from the queue is retried
+     * 
+     * @param session
+     *            the {@link Session} of the worker which claimed the item
+     * @param item
+     *            the path of the queue item
+     * @param owner
+     *            the id of the worker which claimed the item
+     * @throws RepositoryException
+     *             if the ingest failed
+     */
+    public void ingestQueuedItem(final Session session, final String item, final String owner) throws RepositoryException {
+        final Datastream ds = this.datastreamService.getDatastream(session, item);
+        final String entityId = item.substring(QUEUE_NODE.length() + 1);
+        try {
+            if (!isLeasedTo(session, item, owner)) {
+                LOG.warn("lease of queue item {} has been lost by {}, skipping ingest", item, owner);
+                return;
+            }
+            addEntity(session, ds.getContent(), entityId);
+        } catch (ItemExistsException e) {
+            session.refresh(false);
+            if (!isLeasedTo(session, item, owner)) {
+                /* another worker took over the expired lease and ingested the entity */
+                LOG.warn("queue item {} has been ingested by another worker", item);
+                return;
+            }
+            if (isPublished(session, entityId)) {
+                /* an earlier attempt saved the entity but could not remove the item from the queue */
+                LOG.warn("the entity of queue item {} has been ingested already, removing the item from the queue", item);
+                removeIngestedItem(session, item);
+                return;
+            }
+            deadLetter(session, item, failureReason(e));
+            throw e;
+        } catch (RepositoryException | RuntimeException e) {
+            session.refresh(false);
+            retryOrDeadLetter(session, item, e);
+            throw e;
         }
-        for (String item : getItemsFromQueue(session)) {
-            final Datastream ds = this.datastreamService.getDatastream(session, item);
-            /* update the ingest state so that it won't get ingested twice */
+        /* the entity is saved, so only the removal of the item is retried */
+        removeIngestedItem(session, item);
+    }
+
+    /*
+     * remove the item of an ingested entity from the queue. If this keeps
+     * failing the item is claimed again once its lease has expired, and its
+     * ingest finds the published entity
+     */
+    private void removeIngestedItem(final Session session, final String item) throws RepositoryException {
+        for (int attempt = 1;; attempt++) {
             try {
-                final StringBuilder sparql = new StringBuilder("PREFIX scape: <http://scapeproject.eu/model#> ");
-                final String uri = subjects.getSubject(ds.getPath()).getURI();
-                sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_INGEST_STATE) + " \"INGESTING\"};");
-                ds.updatePropertiesDataset(subjects, sparql.toString());
-                addEntity(session, ds.getContent(), item.substring(QUEUE_NODE.length() + 1));
                 deleteFromQueue(session, item);
-            } catch (Exception e) {
-                final StringBuilder sparql = new StringBuilder("PREFIX scape: <http://scapeproject.eu/model#> ");
-                final String uri = subjects.getSubject(ds.getPath()).getURI();
-                sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_INGEST_STATE) + " \"INGEST_FAILED\"};");
-                ds.updatePropertiesDataset(subjects, sparql.toString());
-                e.printStackTrace();
+                return;
+            } catch (RepositoryException e) {
+                session.refresh(false);
+                if (attempt >= this.retryMaxAttempts) {
+                    throw e;
+                }
+                LOG.warn("removal of ingested queue item {} failed (attempt {}), retrying: {}", item, attempt, e.getMessage());
             }
         }
-        session.save();
+    }
+
+    /* check whether an entity exists and has a current version */
+    private boolean isPublished(final Session session, final String entityId) throws RepositoryException {
+        final String entityPath = ENTITY_FOLDER + "/" + entityId;
+        return this.objectService.exists(session, entityPath)
+                && !getStrings(this.objectService.getObject(session, entityPath).getNode(), HAS_CURRENT_VERSION).isEmpty();
+    }
+
+    /**
+     * Ingest a batch of queue items claimed by
+     * {@link #claimQueuedItems(Session, String, long, int, long)} and save
+     * them together. If the group commit fails the items are ingested one by
+     * one using {@link #ingestQueuedItem(Session, String, String)} so that a
+     * failing item does not affect the others
+     * 
+     * @param session
+     *            the {@link Session} of the worker which claimed the items
+     * @param items
+     *            the paths of the queue items
+     * @param owner
+     *            the id of the worker which claimed the items
+     * @return the paths of the items which could not be ingested
+     * @throws RepositoryException
+     *             if the items could not be removed from the queue
+     */
+    public List<String> ingestQueuedItems(final Session session, final List<String> items, final String owner) throws RepositoryException {
+        final List<String> failed = new ArrayList<>();
+        final List<String> ingested = new ArrayList<>();
+        try {
+            for (String item : items) {
+                if (!isLeasedTo(session, item, owner)) {
+                    LOG.warn("lease of queue item {} has been lost by {}, skipping ingest", item, owner);
+                    continue;
+                }
+                createEntity(session, this.datastreamService.getDatastream(session, item).getContent(), item.substring(QUEUE_NODE.length() + 1), null);
+                ingested.add(item);
+            }
+            session.save();
+        } catch (RepositoryException | RuntimeException e) {
+            session.refresh(false);
+            LOG.warn("group commit of {} queue items failed, ingesting them one by one: {}", items.size(), e.getMessage());
+            for (String item : items) {
+                try {
+                    ingestQueuedItem(session, item, owner);
+                } catch (RepositoryException | RuntimeException inner) {
+                    LOG.error("Unable to ingest queue item " + item, inner);
+                    failed.add(item);
+                }
+            }
+            return failed;
+        }
+        /* the entities are saved, so a crash from here on is cleaned up by the reaper */
+        synchronized (this.queueLock) {
+            final Node queueNode = this.objectService.getObject(session, QUEUE_NODE).getNode();
+            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+            for (String item : ingested) {
+                removeString(queueNode, HAS_ITEM, subjects.getSubject(item).getURI());
+                this.nodeService.deleteObject(session, item);
+            }
+            session.save();
+            for (String item : ingested) {
+                this.queueIndex.remove(item);
+            }
+        }
+        return failed;
+    }
+
+    private void retryOrDeadLetter(final Session session, final String item, final Exception e) throws RepositoryException {
+        synchronized (this.queueLock) {
+            final Node itemNode = this.datastreamService.getDatastream(session, item).getNode();
+            final List<String> attempts = getStrings(itemNode, HAS_INGEST_ATTEMPTS);
+            final int attempt = attempts.isEmpty() ? 1 : Integer.parseInt(attempts.get(0)) + 1;
+            if (!isRetryable(e) || attempt >= this.retryMaxAttempts) {
+                deadLetter(session, item, failureReason(e));
+                return;
+            }
+            final long delay = backoff(attempt);
+            LOG.warn("ingest of queue item {} failed (attempt {}), retrying in {} ms", item, attempt, delay);
+            setString(itemNode, HAS_INGEST_STATE, "RETRY_WAIT");
+            setString(itemNode, HAS_INGEST_ATTEMPTS, String.valueOf(attempt));
+            setString(itemNode, HAS_INGEST_NOT_BEFORE, String.valueOf(System.currentTimeMillis() + delay));
+            setString(itemNode, HAS_INGEST_FAILURE, failureReason(e));
+            removeProperty(itemNode, HAS_INGEST_OWNER);
+            removeProperty(itemNode, HAS_INGEST_LEASE_EXPIRY);
+            session.save();
+            this.queueIndex.put(item, "RETRY_WAIT");
+            this.retried.mark();
+        }
+    }
+
+    /* move a queue item to the dead letter node */
+    private void deadLetter(final Session session, final String item, final String reason) throws RepositoryException {
+        synchronized (this.queueLock) {
+            final String target = DEAD_LETTER_NODE + item.substring(QUEUE_NODE.length());
+            if (this.datastreamService.exists(session, target)) {
+                this.nodeService.deleteObject(session, target);
+            }
+            final Node itemNode = this.datastreamService.getDatastream(session, item).getNode();
+            setString(itemNode, HAS_INGEST_STATE, "INGEST_FAILED");
+            setString(itemNode, HAS_INGEST_FAILURE, reason);
+            removeProperty(itemNode, HAS_INGEST_OWNER);
+            removeProperty(itemNode, HAS_INGEST_LEASE_EXPIRY);
+            removeProperty(itemNode, HAS_INGEST_NOT_BEFORE);
+            final String itemUri = new DefaultIdentifierTranslator().getSubject(item).getURI();
+            removeString(this.objectService.getObject(session, QUEUE_NODE).getNode(), HAS_ITEM, itemUri);
+            session.move(item, target);
+            session.save();
+            this.queueIndex.remove(item);
+            this.deadLettered.mark();
+            LOG.error("moved queue item {} to the dead letter node: {}", item, reason);
+        }
+    }
+
+    /*
+     * transient errors like failed downloads of referenced content or
+     * conflicting saves are worth a retry, invalid documents are not
+     */
+    private static boolean isRetryable(final Throwable e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof ItemExistsException) {
+                return false;
+            }
+            if (cause instanceof IOException || cause instanceof InvalidItemStateException || cause instanceof LockException
+                    || cause instanceof TimeoutException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    private static String failureReason(final Throwable e) {
+        final StringBuilder reason = new StringBuilder();
+        Throwable cause = e;
+        while (cause != null) {
+            if (reason.length() > 0) {
+                reason.append(" caused by ");
+            }
+            reason.append(cause.getClass().getSimpleName());
+            if (cause.getMessage() != null) {
+                reason.append(": ").append(cause.getMessage());
+            }
+            cause = cause.getCause();
+        }
+        return reason.toString();
+    }
+
+    /* exponential backoff with a random jitter of up to half the delay */
+    private long backoff(final int attempt) {
+        final long delay = Math.min(this.retryBackoffMax, this.retryBackoff << Math.min(attempt - 1, 30));
+        return delay / 2 + (long) (this.random.nextDouble() * (delay / 2));
+    }
+
+    /*
+     * remove an entity which has been left behind unpublished by a chunked
+     * ingest that did not finish, e.g. because the JVM died. The removal is
+     * saved together with the caller's changes
+     */
+    private boolean purgeUnpublished(final Session session, final String entityPath) throws RepositoryException {
+        final Node entityNode = this.objectService.getObject(session, entityPath).getNode();
+        if (!getStrings(entityNode, HAS_CURRENT_VERSION).isEmpty()) {
+            return false;
+        }
+        LOG.warn("purging the unpublished entity {} left behind by an unfinished ingest", entityPath);
+        this.nodeService.deleteObject(session, entityPath);
+        return true;
+    }
+
+    private boolean isLeasedTo(final Session session, final String item, final String owner) throws RepositoryException {
+        if (!this.datastreamService.exists(session, item)) {
+            return false;
+        }
+        final Node itemNode = this.datastreamService.getDatastream(session, item).getNode();
+        return getFirstString(itemNode, HAS_INGEST_STATE).equals("INGESTING") && getStrings(itemNode, HAS_INGEST_OWNER).contains(owner);
+    }
+
+    /**
+     * Add an item which has been created in the queue by another session, e.g.
+     * on another cluster node, to the queue index. Items which are indexed
+     * already are left untouched
+     * 
+     * @param session
+     *            the {@link Session} to read the item with
+     * @param item
+     *            the path of the queue item
+     * @throws RepositoryException
+     *             if the item could not be read
+     */
+    public void indexQueuedItem(final Session session, final String item) throws RepositoryException {
+        synchronized (this.queueLock) {
+            if (this.queueIndex.isLoaded() && this.queueIndex.getState(item) == null && this.datastreamService.exists(session, item)) {
+                final Datastream ds = this.datastreamService.getDatastream(session, item);
+                this.queueIndex.put(item, "QUEUED", laneOf(ds.getNode()), ds.getContentSize(), ds.getCreatedDate().getTime());
+            }
+        }
+    }
+
+    /**
+     * Get the number of queued items
+     * 
+     * @return the number of items waiting for ingestion
+     */
+    public int getQueueDepth() {
+        return this.queueIndex.count("QUEUED");
+    }
+
+    /**
+     * Get the number of queued items of a lane
+     * 
+     * @param lane
+     *            the lane of the queue
+     * @return the number of items of the lane waiting for ingestion
+     */
+    public int getQueueDepth(final String lane) {
+        return this.queueIndex.count("QUEUED", lane);
+    }
+
+    /**
+     * Get the time the oldest queued item of a lane has been waiting for
+     * ingestion
+     * 
+     * @param lane
+     *            the lane of the queue
+     * @return the waiting time in milliseconds
+     */
+    public long getQueueWait(final String lane) {
+        return this.queueIndex.getAge("QUEUED", lane);
+    }
+
+    /**
+     * Get the number of bytes spooled in the ingest queue
+     * 
+     * @return the size of all the documents in the queue in bytes
+     */
+    public long getQueueBytes() {
+        return this.queueIndex.getBytes();
     }
 
     /**
@@ -991,276 +2678,400 @@ public class ConnectorService {
         return uris;
     }
 
-    private String getCurrentVersionPath(Model entityModel, String uri) throws RepositoryException {
-        final Resource parent = entityModel.createResource(uri);
-        String version = getResourceFromModel(entityModel, parent, HAS_CURRENT_VERSION);
-        return version.substring(version.indexOf('/'));
+    private String getCurrentVersionPath(Node entityNode) throws RepositoryException {
+        return getPath(entityNode, HAS_CURRENT_VERSION);
     }
 
-    private String getResourceFromModel(Model model, Resource parent, String propertyName) {
-        StmtIterator it = model.listStatements(parent, model.createProperty(namespace(propertyName)), (RDFNode) null);
-        String uri = it.next().getResource().getURI();
-        return uri;
+    /*
+     * look up the path of the current version of an entity. Only used for
+     * reads, updates have to use the entity node's property in their own
+     * session
+     */
+    private String fetchCurrentVersionPath(final Session session, final String entityId) throws RepositoryException {
+        final String cached = this.currentVersions.get(entityId);
+        if (cached != null) {
+            return cached;
+        }
+        final long seen;
+        synchronized (this.currentVersions) {
+            seen = this.currentVersionChanges;
+        }
+        final Node entityNode = this.objectService.getObject(session, ENTITY_FOLDER + "/" + entityId).getNode();
+        final String versionPath = getCurrentVersionPath(entityNode);
+        synchronized (this.currentVersions) {
+            /* a version published meanwhile might already be outdating what has been read */
+            if (this.currentVersionsObserved && this.currentVersionChanges == seen) {
+                this.currentVersions.put(entityId, versionPath);
+            }
+        }
+        return versionPath;
+    }
+
+    /*
+     * record the new current version of an entity or forget it if the version
+     * is not known
+     */
+    private void currentVersionChanged(final String entityId, final String versionPath) {
+        synchronized (this.currentVersions) {
+            this.currentVersionChanges++;
+            if (versionPath != null && this.currentVersionsObserved) {
+                this.currentVersions.put(entityId, versionPath);
+            } else {
+                this.currentVersions.remove(entityId);
+            }
+        }
     }
 
-    private List<String> getResourcesFromModel(Model model, Resource parent, String propertyName) {
-        StmtIterator it = model.listStatements(parent, model.createProperty(namespace(propertyName)), (RDFNode) null);
-        final List<String> resources = new ArrayList<>(16);
-        resources.add(it.next().getResource().getURI());
-        return resources;
+    /*
+     * forget the cached current version of an entity which has been changed
+     * outside of this connector's publishVersion, e.g. by another connector
+     * instance. A changed version equal to the cached one has just been
+     * recorded by a local save
+     */
+    private void currentVersionObserved(final String entityId, final String versionPath) {
+        synchronized (this.currentVersions) {
+            if (versionPath != null && versionPath.equals(this.currentVersions.get(entityId))) {
+                return;
+            }
+            currentVersionChanged(entityId, null);
+        }
     }
 
     private void deleteFromQueue(final Session session, final String item) throws RepositoryException {
-        final FedoraObject queueObject = this.objectService.getObject(session, QUEUE_NODE);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(queueObject.getPath()).getURI();
-        final String itemUri = subjects.getSubject(item).getURI();
-
-        final String sparql = "PREFIX scape: <http://scapeproject.eu/model#> DELETE {<" + uri + "> " + prefix(HAS_ITEM) + " \"" + itemUri + "\"} WHERE {}";
-        queueObject.updatePropertiesDataset(subjects, sparql);
-        this.nodeService.deleteObject(session, item);
-        session.save();
+        final String itemUri = new DefaultIdentifierTranslator().getSubject(item).getURI();
+        synchronized (this.queueLock) {
+            removeString(this.objectService.getObject(session, QUEUE_NODE).getNode(), HAS_ITEM, itemUri);
+            this.nodeService.deleteObject(session, item);
+            session.save();
+            this.queueIndex.remove(item);
+        }
     }
 
-    private List<String> getItemsFromQueue(final Session session) throws RepositoryException {
-        final FedoraObject queueObject = this.objectService.getObject(session, QUEUE_NODE);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(queueObject.getPath()).getURI();
-        final Model queueModel = SerializationUtils.unifyDatasetModel(queueObject.getPropertiesDataset(subjects));
-        final Resource parent = queueModel.createResource(uri);
-        StmtIterator it = queueModel.listStatements(parent, queueModel.createProperty(namespace(HAS_ITEM)), (RDFNode) null);
-        List<String> queueItems = new ArrayList<>();
-        while (it.hasNext()) {
-            final String itemUri = it.nextStatement().getObject().asLiteral().getString();
-            final String path = subjects.getPathFromSubject(queueModel.createResource(itemUri));
-            if (this.datastreamService.getDatastream(session, path)
-                    .getNode()
-                    .getProperties(prefix(HAS_INGEST_STATE))
-                    .nextProperty()
-                    .getString()
-                    .equals("QUEUED")) {
-                queueItems.add(path);
+    /*
+     * pick the lane to claim the next item from using a smooth weighted round
+     * robin over the lanes with queued items. Callers have to hold the queue
+     * lock
+     */
+    private String nextLane() {
+        String next = null;
+        int total = 0;
+        for (Map.Entry<String, Integer> lane : this.laneWeights.entrySet()) {
+            if (this.queueIndex.count("QUEUED", lane.getKey()) == 0) {
+                continue;
             }
+            final Integer credit = this.laneCredits.get(lane.getKey());
+            this.laneCredits.put(lane.getKey(), (credit == null ? 0 : credit) + lane.getValue());
+            total += lane.getValue();
+            if (next == null || this.laneCredits.get(lane.getKey()) > this.laneCredits.get(next)) {
+                next = lane.getKey();
+            }
+        }
+        if (next != null) {
+            this.laneCredits.put(next, this.laneCredits.get(next) - total);
         }
-        return queueItems;
+        return next;
     }
 
-    private void updateBitStreamMetadata(Session session, String entityId, String repId, String fileId, String bsId, String metadataName, InputStream src)
-            throws RepositoryException {
-
-        try {
-
-            if (!metadataName.equals("TECHNICAL")) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
-            }
-            final Object metadata = this.marshaller.deserialize(src);
+    private String laneOf(final Node itemNode) throws RepositoryException {
+        final List<String> lane = getStrings(itemNode, HAS_INGEST_LANE);
+        /* items queued before lanes were introduced or of a removed lane */
+        if (lane.isEmpty() || !this.laneWeights.containsKey(lane.get(0))) {
+            return DEFAULT_LANE;
+        }
+        return lane.get(0);
+    }
 
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            for (Representation r : orig.getRepresentations()) {
-                if (!r.getIdentifier().getValue().equals(repId)) {
-                    representations.add(r);
-                } else {
-                    Representation.Builder newRep = new Representation.Builder(r);
-                    List<File> files = new ArrayList<>();
-                    for (File f : r.getFiles()) {
-                        if (!f.getIdentifier().getValue().equals(fileId)) {
-                            files.add(f);
-                        } else {
-                            File.Builder newFile = new File.Builder(f);
-                            List<BitStream> bitstreams = new ArrayList<>();
-                            for (BitStream bs : f.getBitStreams()) {
-                                if (!bs.getIdentifier().getValue().equals(bsId)) {
-                                    bitstreams.add(bs);
-                                } else {
-                                    BitStream newBs = new BitStream.Builder(bs).technical(metadata).build();
-                                    bitstreams.add(newBs);
-                                }
-                            }
-                            newFile.bitStreams(bitstreams);
-                            files.add(newFile.build());
-                        }
-                    }
-                    newRep.files(files);
-                    representations.add(newRep.build());
-                }
+    /*
+     * populate the queue index from the repository. This reads every queue
+     * item once at startup, afterwards the index is kept up to date by the
+     * methods changing the queue. If the queue has not been created yet the
+     * index starts out empty. Callers have to hold the queue lock
+     */
+    private void loadQueueIndex(final Session session) throws RepositoryException {
+        if (this.queueIndex.isLoaded()) {
+            return;
+        }
+        if (!this.objectService.exists(session, QUEUE_NODE)) {
+            this.queueIndex.setLoaded();
+            return;
+        }
+        final Node queueNode = this.objectService.getObject(session, QUEUE_NODE).getNode();
+        for (String path : getPaths(queueNode, HAS_ITEM)) {
+            if (this.datastreamService.exists(session, path)) {
+                final Datastream ds = this.datastreamService.getDatastream(session, path);
+                this.queueIndex.put(path, getFirstString(ds.getNode(), HAS_INGEST_STATE), laneOf(ds.getNode()), ds.getContentSize(),
+                        ds.getCreatedDate().getTime());
             }
-
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
-
-        } catch (JAXBException e) {
-            throw new RepositoryException(e);
         }
+        this.queueIndex.setLoaded();
+        LOG.info("indexed {} queued items of the ingest queue", this.queueIndex.count("QUEUED"));
     }
 
-    private void updateFileMetadata(Session session, String entityId, String repId, String fileId, String metadataName, InputStream src)
-            throws RepositoryException {
-        try {
+    private List<String> addRepresentations(final Session session, final List<Representation> representations, final String versionPath,
+            final Map<File, Future<java.io.File>> prefetched, final IngestChunks chunks) throws RepositoryException {
+        if (representations == null) {
+            return Collections.<String>emptyList();
+        }
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final List<String> repUris = new ArrayList<>(representations.size());
 
-            if (!metadataName.equals("TECHNICAL")) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
-            }
-            final Object metadata = this.marshaller.deserialize(src);
+        for (Representation rep : representations) {
+            repUris.add(subjects.getSubject(addRepresentation(session, rep, versionPath, prefetched, chunks).getPath()).getURI());
+        }
+        return repUris;
 
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            for (Representation r : orig.getRepresentations()) {
-                if (!r.getIdentifier().getValue().equals(repId)) {
-                    representations.add(r);
-                } else {
-                    Representation.Builder newRep = new Representation.Builder(r);
-                    List<File> files = new ArrayList<>();
-                    for (File f : r.getFiles()) {
-                        if (!f.getIdentifier().getValue().equals(fileId)) {
-                            files.add(f);
-                        } else {
-                            File newFile = new File.Builder(f).technical(metadata).build();
-                            files.add(newFile);
-                        }
-                    }
-                    newRep.files(files);
-                    representations.add(newRep.build());
-                }
-            }
+    }
 
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
+    private FedoraObject addRepresentation(final Session session, final Representation rep, final String versionPath,
+            final Map<File, Future<java.io.File>> prefetched, final IngestChunks chunks) throws RepositoryException {
+        final String repId = (rep.getIdentifier() != null) ? rep.getIdentifier().getValue() : UUID.randomUUID().toString();
+        final String repPath = versionPath + "/" + repId;
+        final FedoraObject repObject = objectService.createObject(session, repPath);
+        final Node repNode = repObject.getNode();
+        repNode.addMixin("scape:representation");
+
+        /* add the metadatasets of the rep as datastreams */
+        if (rep.getTechnical() != null) {
+            addMetadata(session, rep.getTechnical(), repPath + "/TECHNICAL");
+        }
+        if (rep.getSource() != null) {
+            addMetadata(session, rep.getSource(), repPath + "/SOURCE");
+        }
+        if (rep.getRights() != null) {
+            addMetadata(session, rep.getRights(), repPath + "/RIGHTS");
+        }
+        if (rep.getProvenance() != null) {
+            addMetadata(session, rep.getProvenance(), repPath + "/PROVENANCE");
+        }
 
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
+        /* add all the files */
+        setStrings(repNode, HAS_FILE, addFiles(session, rep.getFiles(), repPath, prefetched, chunks));
 
-        } catch (JAXBException e) {
-            throw new RepositoryException(e);
-        }
+        /* set the type and title of this object */
+        setString(repNode, HAS_TYPE, "representation");
+        setString(repNode, HAS_TITLE, String.valueOf(rep.getTitle()));
+        return repObject;
     }
 
-    private void updateRepresentationMetadata(Session session, String entityId, String repId, String metadataName, InputStream src) throws RepositoryException {
+    /*
+     * add a new version of a representation which has a counterpart in the
+     * previous version. The representation of the previous version is
+     * referenced if nothing has changed, otherwise only the changed files and
+     * metadata are written and the rest is shared
+     */
+    private String addRepresentationVersion(final Session session, final Representation rep, final String versionPath, final Node oldRepNode,
+            final String entityId) throws RepositoryException {
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final String repId = rep.getIdentifier().getValue();
+        final List<File> files = (rep.getFiles() != null) ? rep.getFiles() : Collections.<File>emptyList();
 
-        try {
+        /* find the files which are unchanged */
+        final Map<String, String> oldFiles = pathsById(oldRepNode, HAS_FILE);
+        final List<String> unchanged = new ArrayList<>(files.size());
+        for (File f : files) {
+            final String oldFilePath = (f.getIdentifier() != null) ? oldFiles.get(f.getIdentifier().getValue()) : null;
+            unchanged.add(oldFilePath != null && isUnchanged(session, f, session.getNode(oldFilePath), entityId, repId) ? oldFilePath : null);
+        }
+        if (!unchanged.contains(null) && unchanged.equals(new ArrayList<>(oldFiles.values()))
+                && String.valueOf(rep.getTitle()).equals(getFirstString(oldRepNode, HAS_TITLE))
+                && isUnchanged(session, rep.getTechnical(), datastreamPath(oldRepNode, "TECHNICAL"))
+                && isUnchanged(session, rep.getSource(), datastreamPath(oldRepNode, "SOURCE"))
+                && isUnchanged(session, rep.getRights(), datastreamPath(oldRepNode, "RIGHTS"))
+                && isUnchanged(session, rep.getProvenance(), datastreamPath(oldRepNode, "PROVENANCE"))) {
+            return subjects.getSubject(oldRepNode.getPath()).getURI();
+        }
 
-            if (!(metadataName.equals("TECHNICAL") || metadataName.equals("SOURCE") || metadataName.equals("PROVENANCE") || metadataName.equals("RIGHTS"))) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
+        final String repPath = versionPath + "/" + repId;
+        final FedoraObject repObject = objectService.createObject(session, repPath);
+        final Node repNode = repObject.getNode();
+        repNode.addMixin("scape:representation");
+        addOrShareMetadata(session, rep.getTechnical(), repNode, oldRepNode, "TECHNICAL");
+        addOrShareMetadata(session, rep.getSource(), repNode, oldRepNode, "SOURCE");
+        addOrShareMetadata(session, rep.getRights(), repNode, oldRepNode, "RIGHTS");
+        addOrShareMetadata(session, rep.getProvenance(), repNode, oldRepNode, "PROVENANCE");
+
+        /* find the changed files which only share the binary of the previous version and the ones whose binary has to be fetched */
+        final List<String> sharedContent = new ArrayList<>(files.size());
+        final List<File> changedContent = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            final File f = files.get(i);
+            final String oldFilePath = (f.getIdentifier() != null) ? oldFiles.get(f.getIdentifier().getValue()) : null;
+            if (unchanged.get(i) != null || this.referencedContent) {
+                sharedContent.add(null);
+            } else if (oldFilePath != null && isSameContent(session.getNode(oldFilePath), f, entityId, repId)) {
+                sharedContent.add(datastreamPath(session.getNode(oldFilePath), "DATA"));
+            } else {
+                sharedContent.add(null);
+                changedContent.add(f);
             }
-            final Object metadata = this.marshaller.deserialize(src);
+        }
 
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            for (Representation r : orig.getRepresentations()) {
-                if (!r.getIdentifier().getValue().equals(repId)) {
-                    representations.add(r);
+        final List<String> fileUris = new ArrayList<>(files.size());
+        /* fetch the changed binaries concurrently while the nodes are written in order */
+        final List<Future<java.io.File>> fetches = new ArrayList<>(changedContent.size());
+        int written = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                final File f = files.get(i);
+                if (unchanged.get(i) != null) {
+                    fileUris.add(subjects.getSubject(unchanged.get(i)).getURI());
+                } else if (sharedContent.get(i) != null) {
+                    /* only the file's metadata has changed, so the binary is shared */
+                    fileUris.add(addFile(session, f, repPath, null, sharedContent.get(i)));
+                } else if (this.referencedContent) {
+                    fileUris.add(addFile(session, f, repPath, null, null));
                 } else {
-                    Representation.Builder newRep = new Representation.Builder(r);
-                    if (metadataName.equals("TECHNICAL")) {
-                        newRep.technical(metadata);
-                    } else if (metadataName.equals("SOURCE")) {
-                        newRep.source(metadata);
-                    } else if (metadataName.equals("PROVENANCE")) {
-                        newRep.provenance(metadata);
-                    } else if (metadataName.equals("RIGHTS")) {
-                        newRep.rights(metadata);
+                    /* keep up to the number of workers binaries ahead of the node being written */
+                    while (fetches.size() < changedContent.size() && fetches.size() <= written + this.fetchThreads) {
+                        fetches.add(fetchBinary(resolveUri(changedContent.get(fetches.size()))));
                     }
-                    representations.add(newRep.build());
+                    fileUris.add(addFile(session, f, repPath, fetches.get(written++), null));
                 }
             }
-
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
-
-        } catch (JAXBException e) {
-            throw new RepositoryException(e);
+        } finally {
+            discardBinaries(fetches);
         }
+        setStrings(repNode, HAS_FILE, fileUris);
+        setString(repNode, HAS_TYPE, "representation");
+        setString(repNode, HAS_TITLE, String.valueOf(rep.getTitle()));
+        return subjects.getSubject(repObject.getPath()).getURI();
     }
 
-    private void updateEntityMetadata(Session session, String entityId, String metadataName, InputStream src) throws RepositoryException {
-        try {
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            if (!metadataName.equals("DESCRIPTIVE")) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
+    /*
+     * check whether a file of an update is the same as a file of the previous
+     * version
+     */
+    private boolean isUnchanged(final Session session, final File f, final Node oldFileNode, final String entityId, final String repId)
+            throws RepositoryException {
+        /* the content is compared first, since a file without a URI has no name to compare */
+        if (!isSameContent(oldFileNode, f, entityId, repId) || !fileName(f).equals(getFirstString(oldFileNode, HAS_FILENAME))
+                || !mimeType(f).equals(getFirstString(oldFileNode, HAS_MIMETYPE)) || !isUnchanged(session, f.getTechnical(), datastreamPath(oldFileNode, "TECHNICAL"))) {
+            return false;
+        }
+        final List<BitStream> bitStreams = (f.getBitStreams() != null) ? f.getBitStreams() : Collections.<BitStream>emptyList();
+        final List<String> oldBitStreams = oldFileNode.hasProperty(prefix(HAS_BITSTREAM)) ? getPaths(oldFileNode, HAS_BITSTREAM) : Collections.<String>emptyList();
+        if (bitStreams.size() != oldBitStreams.size()) {
+            return false;
+        }
+        for (int i = 0; i < bitStreams.size(); i++) {
+            final BitStream bs = bitStreams.get(i);
+            final Node oldBsNode = session.getNode(oldBitStreams.get(i));
+            final String bsType = (bs.getType() != null) ? bs.getType().name() : BitStream.Type.STREAM.name();
+            if (bs.getIdentifier() == null || !oldBsNode.getName().equals(bs.getIdentifier().getValue())
+                    || !bsType.equals(getFirstString(oldBsNode, HAS_BITSTREAM_TYPE))
+                    || !isUnchanged(session, bs.getTechnical(), oldBsNode.getPath() + "/TECHNICAL")) {
+                return false;
             }
-            final Object desc = this.marshaller.deserialize(src);
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).descriptive(desc).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
-
-        } catch (JAXBException e) {
-            throw new RepositoryException(e);
         }
+        return true;
     }
 
-    private String getFirstLiteralString(Model model, Resource subject, String propertyName) {
-
-        final Property p = model.createProperty(namespace(propertyName));
-        final StmtIterator it = model.listStatements(subject, p, (RDFNode) null);
-        return it.next().getLiteral().getString();
+    /*
+     * check whether the content of a file of an update is the binary of a file
+     * of the previous version. In managed mode this is the case if the file's
+     * URI is the one the connector publishes for the file
+     */
+    private boolean isSameContent(final Node oldFileNode, final File f, final String entityId, final String repId) throws RepositoryException {
+        if (f.getUri() == null) {
+            return false;
+        }
+        if (this.referencedContent) {
+            return oldFileNode.hasProperty(prefix(HAS_REFERENCED_CONTENT))
+                    && resolveUri(f).toString().equals(getFirstString(oldFileNode, HAS_REFERENCED_CONTENT));
+        }
+        return f.getUri().toString().equals(fedoraUrl + "/scape/file/" + entityId + "/" + repId + "/" + oldFileNode.getName());
     }
 
-    private List<String> getLiteralStrings(Model model, Resource subject, String propertyName) {
-        final List<String> result = new ArrayList<>();
-        final Property p = model.createProperty(namespace(propertyName));
-        final StmtIterator it = model.listStatements(subject, p, (RDFNode) null);
-        while (it.hasNext()) {
-            result.add(it.next().getLiteral().getString());
+    /*
+     * check whether a metadata record equals the one saved at a given path by
+     * comparing their serializations
+     */
+    private boolean isUnchanged(final Session session, final Object metadata, final String path) throws RepositoryException {
+        final boolean exists = this.datastreamService.exists(session, path);
+        if (metadata == null || !exists) {
+            return metadata == null && !exists;
+        }
+        final BufferPool.Buffer sink = this.metadataBuffers.borrow();
+        try (final InputStream saved = this.datastreamService.getDatastream(session, path).getContent()) {
+            this.marshaller.marshal(metadata, sink);
+            return IOUtils.contentEquals(sink.getInputStream(), saved);
+        } catch (JAXBException | IOException e) {
+            throw new RepositoryException(e);
+        } finally {
+            this.metadataBuffers.release(sink);
         }
-        return result;
     }
 
-    private List<String> addRepresentations(final Session session, final List<Representation> representations, final String versionPath) throws RepositoryException {
-        if (representations == null) {
-            return Collections.<String>emptyList();
+    /*
+     * write a metadata record of a new version or share the record of the
+     * previous version if it is unchanged
+     */
+    private void addOrShareMetadata(final Session session, final Object metadata, final Node node, final Node oldNode, final String name)
+            throws RepositoryException {
+        if (metadata == null) {
+            return;
         }
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String versionUri = subjects.getSubject("/" + versionPath).getURI();
-        final List<String> repUris = new ArrayList<>(representations.size());
-
-        for (Representation rep : representations) {
-            final String repId = (rep.getIdentifier() != null) ? rep.getIdentifier().getValue() : UUID.randomUUID().toString();
-            final String repPath = versionPath + "/" + repId;
-            final FedoraObject repObject = objectService.createObject(session, repPath);
-            final String repUri = subjects.getSubject(repObject.getPath()).getURI();
-            repUris.add(repUri);
-            repObject.getNode().addMixin("scape:representation");
+        final String oldPath = datastreamPath(oldNode, name);
+        if (isUnchanged(session, metadata, oldPath)) {
+            addString(node, HAS_SHARED, new DefaultIdentifierTranslator().getSubject(oldPath).getURI());
+        } else {
+            addMetadata(session, metadata, node.getPath() + "/" + name);
+        }
+    }
 
-            /* add the metadatasets of the rep as datastreams */
-            if (rep.getTechnical() != null) {
-                addMetadata(session, rep.getTechnical(), repPath + "/TECHNICAL");
-            }
-            if (rep.getSource() != null) {
-                addMetadata(session, rep.getSource(), repPath + "/SOURCE");
-            }
-            if (rep.getRights() != null) {
-                addMetadata(session, rep.getRights(), repPath + "/RIGHTS");
-            }
-            if (rep.getProvenance() != null) {
-                addMetadata(session, rep.getProvenance(), repPath + "/PROVENANCE");
+    /*
+     * get the paths of the objects referenced by a property keyed by their
+     * ids, in the order of the property's values
+     */
+    private static Map<String, String> pathsById(final Node node, final String property) throws RepositoryException {
+        final Map<String, String> paths = new LinkedHashMap<>();
+        if (node.hasProperty(prefix(property))) {
+            for (String path : getPaths(node, property)) {
+                paths.put(path.substring(path.lastIndexOf('/') + 1), path);
             }
+        }
+        return paths;
+    }
 
-            /* add all the files */
-            for (final String fileUri : addFiles(session, rep.getFiles(), repPath)) {
-                sparql.append("INSERT DATA {<" + repUri + "> " + prefix(HAS_FILE) + " \"" + fileUri + "\"};");
+    /*
+     * get the path of an object of a version. Representations, files and
+     * bitstreams which did not change are not copied into a new version but
+     * referenced, so the references are followed if the object is not a child
+     * of its parent
+     */
+    private String resolvePath(final Session session, final String versionPath, final String... ids) throws RepositoryException {
+        final String[] references = { HAS_REPRESENTATION, HAS_FILE, HAS_BITSTREAM };
+        String path = versionPath;
+        for (int i = 0; i < ids.length; i++) {
+            final Node node = session.getNode(path);
+            path = path + "/" + ids[i];
+            if (i < references.length && !node.hasNode(ids[i])) {
+                final String shared = pathsById(node, references[i]).get(ids[i]);
+                if (shared != null) {
+                    path = shared;
+                }
             }
-
-            /* add a sparql query to set the type of this object */
-            sparql.append("INSERT DATA {<" + repUri + "> " + prefix(HAS_TYPE) + " \"representation\"};");
-            sparql.append("INSERT DATA {<" + repUri + "> " + prefix(HAS_TITLE) + " \"" + rep.getTitle() + "\"};");
-            repObject.updatePropertiesDataset(subjects, sparql.toString());
         }
-        return repUris;
+        return path;
+    }
 
+    /*
+     * get the path of a datastream of an object, which may be shared with the
+     * object's counterpart in an earlier version
+     */
+    private static String datastreamPath(final Node node, final String name) throws RepositoryException {
+        if (!node.hasNode(name) && node.hasProperty(prefix(HAS_SHARED))) {
+            for (String path : getPaths(node, HAS_SHARED)) {
+                if (path.endsWith("/" + name)) {
+                    return path;
+                }
+            }
+        }
+        return node.getPath() + "/" + name;
     }
 
     private List<String> addBitStreams(final Session session, final List<BitStream> bitStreams, final String filePath) throws RepositoryException {
 
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
         final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
         final List<String> bsUris = new ArrayList<>(bitStreams.size());
 
@@ -1268,116 +3079,205 @@ public class ConnectorService {
             final String bsId = (bs.getIdentifier() != null) ? bs.getIdentifier().getValue() : UUID.randomUUID().toString();
             final String bsPath = filePath + "/" + bsId;
             final FedoraObject bsObject = this.objectService.createObject(session, bsPath);
-            bsObject.getNode().addMixin("scape:bitstream");
+            final Node bsNode = bsObject.getNode();
+            bsNode.addMixin("scape:bitstream");
             final String uri = subjects.getSubject(bsObject.getPath()).getURI();
-            final String fileUri = subjects.getSubject(filePath).getURI();
             if (bs.getTechnical() != null) {
                 addMetadata(session, bs.getTechnical(), bsPath + "/TECHNICAL");
             }
             final String bsType = (bs.getType() != null) ? bs.getType().name() : BitStream.Type.STREAM.name();
 
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_TYPE) + " \"bitstream\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_BITSTREAM_TYPE) + " \"" + bsType + "\"};");
-            bsObject.updatePropertiesDataset(subjects, sparql.toString());
+            setString(bsNode, HAS_TYPE, "bitstream");
+            setString(bsNode, HAS_BITSTREAM_TYPE, bsType);
             bsUris.add(uri);
         }
 
         return bsUris;
     }
 
-    private List<String> addFiles(final Session session, final List<File> files, final String repPath) throws RepositoryException {
+    private List<String> addFiles(final Session session, final List<File> files, final String repPath, final Map<File, Future<java.io.File>> prefetched,
+            final IngestChunks chunks) throws RepositoryException {
         if (files == null) {
             return Collections.<String>emptyList();
         }
         final List<String> fileUris = new ArrayList<>(files.size());
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
-        for (File f : files) {
+        /* fetch the binaries concurrently while the nodes are written in order */
+        final List<Future<java.io.File>> fetches = new ArrayList<>(files.size());
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                /* keep up to the number of workers binaries ahead of the node being written */
+                while (!this.referencedContent && fetches.size() < files.size() && fetches.size() <= i + this.fetchThreads) {
+                    final File f = files.get(fetches.size());
+                    /* the first binaries of a pipelined ingest are fetched already */
+                    fetches.add(prefetched != null && prefetched.containsKey(f) ? prefetched.get(f) : fetchBinary(resolveUri(f)));
+                }
+                fileUris.add(addFile(session, files.get(i), repPath, this.referencedContent ? null : fetches.get(i), null));
+                if (chunks != null) {
+                    chunks.fileAdded();
+                }
+            }
+        } finally {
+            discardBinaries(fetches);
+        }
+        return fileUris;
+    }
 
-            final String fileId = (f.getIdentifier() != null) ? f.getIdentifier().getValue() : UUID.randomUUID().toString();
-            final String filePath = repPath + "/" + fileId;
+    private String addFile(final Session session, final File f, final String repPath, final Future<java.io.File> content, final String sharedContent)
+            throws RepositoryException {
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final String fileId = (f.getIdentifier() != null) ? f.getIdentifier().getValue() : UUID.randomUUID().toString();
+        final String filePath = repPath + "/" + fileId;
+        final URI fileUri = resolveUri(f);
+
+        /* create a datastream in fedora for this file */
+        final FedoraObject fileObject = this.objectService.createObject(session, filePath);
+        final Node fileNode = fileObject.getNode();
+        fileNode.addMixin("scape:file");
+        final String uri = subjects.getSubject(fileObject.getPath()).getURI();
+
+        /* add the metadata */
+        if (f.getTechnical() != null) {
+            addMetadata(session, f.getTechnical(), filePath + "/TECHNICAL");
+        }
 
-            URI fileUri = f.getUri();
-            if (fileUri.getScheme() == null) {
-                fileUri = URI.create("file:" + fileUri.toASCIIString());
+        /* add all bitstreams as child objects */
+        if (f.getBitStreams() != null) {
+            setStrings(fileNode, HAS_BITSTREAM, addBitStreams(session, f.getBitStreams(), "/" + filePath));
+        }
+        setString(fileNode, HAS_TYPE, "file");
+        setString(fileNode, HAS_FILENAME, fileName(f));
+        setString(fileNode, HAS_MIMETYPE, mimeType(f));
+        setString(fileNode, HAS_INGEST_SOURCE, f.getUri().toString());
+
+        if (sharedContent != null) {
+            /* the binary of the previous version is unchanged */
+            addString(fileNode, HAS_SHARED, subjects.getSubject(sharedContent).getURI());
+        } else if (this.referencedContent) {
+            /* only write a reference to the file URI as a node property */
+            setString(fileNode, HAS_REFERENCED_CONTENT, fileUri.toString());
+        } else {
+            /* load the binary data spooled by the fetch workers into the repo */
+            final java.io.File spooled = awaitBinary(content, fileUri);
+            try (final InputStream src = new FileInputStream(spooled)) {
+                final Node fileDs = this.datastreamService.createDatastream(session, filePath + "/DATA", f.getMimetype(), null, src).getContentNode();
+            } catch (IOException | InvalidChecksumException e) {
+                throw new RepositoryException(e);
+            } finally {
+                spooled.delete();
             }
+        }
+        return uri;
+    }
 
-            /* create a datastream in fedora for this file */
-            final FedoraObject fileObject = this.objectService.createObject(session, filePath);
-            fileObject.getNode().addMixin("scape:file");
-            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-            final String uri = subjects.getSubject(fileObject.getPath()).getURI();
+    private static String fileName(final File f) {
+        if (f.getFilename() != null) {
+            return f.getFilename();
+        }
+        return f.getUri().toASCIIString().substring(f.getUri().toASCIIString().lastIndexOf('/') + 1);
+    }
 
-            /* add the metadata */
-            if (f.getTechnical() != null) {
-                addMetadata(session, f.getTechnical(), filePath + "/TECHNICAL");
-            }
+    private static String mimeType(final File f) {
+        return (f.getMimetype() != null) ? f.getMimetype() : "application/binary";
+    }
 
-            /* add all bitstreams as child objects */
-            if (f.getBitStreams() != null) {
-                for (final String bsUri : addBitStreams(session, f.getBitStreams(), "/" + filePath)) {
-                    sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_BITSTREAM) + " \"" + bsUri + "\"};");
-                }
-            }
-            String fileName = f.getFilename();
-            if (fileName == null) {
-                fileName = f.getUri().toASCIIString().substring(f.getUri().toASCIIString().lastIndexOf('/') + 1);
-            }
-            final String mimeType = (f.getMimetype() != null) ? f.getMimetype() : "application/binary";
+    private URI resolveUri(final File f) throws RepositoryException {
+        final URI fileUri = f.getUri();
+        if (fileUri == null) {
+            final String id = (f.getIdentifier() != null) ? f.getIdentifier().getValue() : f.getFilename();
+            throw new RepositoryException("File '" + id + "' has no URI");
+        }
+        if (fileUri.getScheme() == null) {
+            return URI.create("file:" + fileUri.toASCIIString());
+        }
+        return fileUri;
+    }
 
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_TYPE) + " \"file\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_FILENAME) + " \"" + fileName + "\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_MIMETYPE) + " \"" + mimeType + "\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_INGEST_SOURCE) + " \"" + f.getUri() + "\"};");
+    /* the worker threads are named after their pool and do not keep the servlet container from shutting down */
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
 
+            private final AtomicInteger count = new AtomicInteger();
 
-            if (this.referencedContent) {
-                /* only write a reference to the file URI as a node property */
-                sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_REFERENCED_CONTENT) + " \"" + fileUri + "\"};");
-            } else {
-                /* load the actual binary data into the repo */
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private Future<java.io.File> fetchBinary(final URI fileUri) {
+        return this.fetchExecutor.submit(new Callable<java.io.File>() {
+
+            @Override
+            public java.io.File call() throws IOException {
                 LOG.info("reading binary from {}", fileUri.toASCIIString());
+                final java.io.File spool = java.io.File.createTempFile("binary-", ".spool", tempDirectory);
+                final Timer.Context time = fetchTimer.time();
                 try (final InputStream src = fileUri.toURL().openStream()) {
-                    final Node fileDs = this.datastreamService.createDatastream(session, filePath + "/DATA", f.getMimetype(), null, src).getContentNode();
-                } catch (IOException | InvalidChecksumException e) {
-                    throw new RepositoryException(e);
+                    FileUtils.copyInputStreamToFile(src, spool);
+                } catch (IOException e) {
+                    spool.delete();
+                    throw e;
+                } finally {
+                    time.stop();
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    /* the fetch has been cancelled, nobody will pick up the spooled binary */
+                    spool.delete();
+                }
+                return spool;
+            }
+        });
+    }
+
+    private java.io.File awaitBinary(final Future<java.io.File> fetch, final URI fileUri) throws RepositoryException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while fetching binary from " + fileUri, e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException("Unable to fetch binary from " + fileUri, e.getCause());
+        }
+    }
+
+    private void discardBinaries(final Collection<Future<java.io.File>> fetches) {
+        for (Future<java.io.File> fetch : fetches) {
+            if (!fetch.cancel(true) && !fetch.isCancelled()) {
+                try {
+                    /* the binary has been spooled already but might not have been consumed */
+                    fetch.get().delete();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    /* nothing has been spooled */
                 }
             }
-            fileUris.add(uri);
-            fileObject.updatePropertiesDataset(subjects, sparql.toString());
         }
-        return fileUris;
     }
 
     private void addMetadata(final Session session, final Object metadata, final String path) throws RepositoryException {
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
         try {
 
-            /* use piped streams to copy the data to the repo */
-            final PipedInputStream dcSrc = new PipedInputStream();
-            final PipedOutputStream dcSink = new PipedOutputStream();
-            dcSink.connect(dcSrc);
-            new Thread(new Runnable() {
-
-                @Override
-                public void run() {
-                    try {
-                        ConnectorService.this.marshaller.getJaxbMarshaller().marshal(metadata, dcSink);
-                        dcSink.flush();
-                        dcSink.close();
-                    } catch (JAXBException e) {
-                        LOG.error(e.getLocalizedMessage(), e);
-                    } catch (IOException e) {
-                        LOG.error(e.getLocalizedMessage(), e);
-                    }
+            /* serialize the metadata into a pooled buffer and copy it to the repo */
+            final Datastream ds;
+            final BufferPool.Buffer sink = this.metadataBuffers.borrow();
+            try {
+                final Timer.Context time = this.metadataTimer.time();
+                try {
+                    this.marshaller.marshal(metadata, sink);
+                } finally {
+                    time.stop();
                 }
-            }).start();
-
-            final Datastream ds = datastreamService.createDatastream(session, path, "text/xml", null, dcSrc);
+                ds = datastreamService.createDatastream(session, path, "text/xml", null, sink.getInputStream());
+            } finally {
+                this.metadataBuffers.release(sink);
+            }
             final Node desc = ds.getNode();
             desc.addMixin("scape:metadata");
 
-            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-            final String dsUri = subjects.getSubject(desc.getPath()).getURI();
             /* get the type of the metadata */
             String type = "unknown";
             String schema = "";
@@ -1414,16 +3314,627 @@ public class ConnectorService {
                 schema = "info:lc/xmlns/textmd-v3";
             }
 
-            /* add a sparql query to set the type of this object */
-            sparql.append("INSERT DATA {<" + dsUri + "> " + prefix(HAS_TYPE) + " '" + type + "'};");
-            sparql.append("INSERT DATA {<" + dsUri + "> " + prefix(HAS_SCHEMA) + " '" + schema + "'};");
-
-            ds.updatePropertiesDataset(subjects, sparql.toString());
+            /* set the type and schema of this object */
+            setString(desc, HAS_TYPE, type);
+            setString(desc, HAS_SCHEMA, schema);
 
-        } catch (IOException e) {
+        } catch (JAXBException e) {
             throw new RepositoryException(e);
         } catch (InvalidChecksumException e) {
             throw new RepositoryException(e);
         }
     }
+
+    private Object readMetadata(final InputStream record) throws RepositoryException {
+        if (record == null) {
+            return null;
+        }
+        try {
+            return this.marshaller.deserialize(record);
+        } catch (JAXBException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    private static Identifier identifier(final String id) {
+        return (id == null) ? null : new Identifier(id);
+    }
+
+    /**
+     * Creates the nodes of an {@link IntellectualEntity}'s version while its
+     * METS document is read by a {@link StreamingMetsReader}. Since the METS
+     * fileSec precedes the structMap, files are created in a staging node
+     * first and moved into their {@link Representation} once the file pointer
+     * has been read
+     */
+    private final class StreamingIngest implements StreamingMetsReader.Handler {
+
+        private final Session session;
+
+        private final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+
+        private final List<String> repUris = new ArrayList<>();
+
+        private StreamingMetsReader reader;
+
+        private String entityId;
+
+        private Node entityNode;
+
+        private String versionPath;
+
+        private Node versionNode;
+
+        private String stagingPath;
+
+        private Node repNode;
+
+        private String repPath;
+
+        private List<String> fileUris;
+
+        /* files whose binaries are being fetched, in document order */
+        private final Deque<PendingFile> pending = new ArrayDeque<>();
+
+        private final IngestChunks chunks;
+
+        /**
+         * @param entityId
+         *            the id of the entity or <code>null</code> if the OBJID of
+         *            the METS document should be used
+         * @param versionPath
+         *            the path of the new version of an existing entity or
+         *            <code>null</code> if a new entity is created
+         * @param chunks
+         *            the intermediate saves of a chunked ingest or
+         *            <code>null</code> if the nodes are saved by the caller
+         */
+        private StreamingIngest(final Session session, final String entityId, final String versionPath, final IngestChunks chunks) {
+            this.session = session;
+            this.entityId = entityId;
+            this.versionPath = versionPath;
+            this.chunks = chunks;
+        }
+
+        private void read(final InputStream src) throws RepositoryException {
+            try (final StreamingMetsReader r = new StreamingMetsReader(tempDirectory)) {
+                this.reader = r;
+                r.read(src, this);
+            } catch (IOException e) {
+                throw new RepositoryException(e);
+            } finally {
+                for (PendingFile p : this.pending) {
+                    discardBinaries(Collections.singleton(p.content));
+                }
+            }
+            if (this.versionNode == null) {
+                throw new RepositoryException("Unable to find an intellectual entity in the METS document");
+            }
+        }
+
+        @Override
+        public void startEntity(final String objectId) throws RepositoryException {
+            if (this.versionPath == null) {
+                if (this.entityId == null) {
+                    if (objectId != null) {
+                        this.entityId = objectId;
+                        validateId(this.entityId);
+                    } else {
+                        this.entityId = UUID.randomUUID().toString();
+                    }
+                }
+                /* create the entity top level object in fcrepo as a first version */
+                final String entityPath = ENTITY_FOLDER + "/" + this.entityId;
+                if (objectService.exists(session, "/" + entityPath)) {
+                    /* return a 409: Conflict result */
+                    throw new ItemExistsException("Entity '" + this.entityId + "' already exists");
+                }
+                this.entityNode = objectService.createObject(session, entityPath).getNode();
+                this.entityNode.addMixin("scape:intellectual-entity");
+                if (this.chunks != null) {
+                    this.chunks.staging(entityPath, this.entityNode);
+                }
+                this.versionPath = entityPath + "/version-1";
+            }
+            this.versionNode = objectService.createObject(session, this.versionPath).getNode();
+            this.versionNode.addMixin("scape:intellectual-entity-version");
+            this.stagingPath = this.versionPath + "/staging-" + UUID.randomUUID();
+            objectService.createObject(session, this.stagingPath);
+        }
+
+        @Override
+        public void descriptive(final InputStream record) throws RepositoryException {
+            addMetadata(session, readMetadata(record), this.versionPath + "/DESCRIPTIVE");
+        }
+
+        @Override
+        public void file(final MetsFile file) throws RepositoryException {
+            if (file.getHref() == null) {
+                throw new RepositoryException("File '" + file.getId() + "' has no location");
+            }
+            final List<BitStream> bitStreams = new ArrayList<>(file.getStreams().size());
+            for (MetsStream stream : file.getStreams()) {
+                final BitStream.Builder bs = new BitStream.Builder();
+                bs.identifier(identifier(stream.getId()));
+                bs.technical(readMetadata(reader.getRecord(stream.getAdmIds(), Section.TECHNICAL)));
+                bitStreams.add(bs.build());
+            }
+            final File.Builder f = new File.Builder();
+            f.identifier(identifier(file.getId()));
+            f.uri(URI.create(file.getHref()));
+            f.filename(file.getTitle());
+            f.mimetype(file.getMimetype());
+            f.technical(readMetadata(reader.getRecord(file.getAdmIds(), Section.TECHNICAL)));
+            f.bitStreams(bitStreams);
+            final File built = f.build();
+            if (referencedContent) {
+                addFile(session, built, this.stagingPath, null, null);
+                if (this.chunks != null) {
+                    this.chunks.fileAdded();
+                }
+            } else {
+                /* fetch up to the number of workers binaries ahead of the node being written */
+                this.pending.add(new PendingFile(built, fetchBinary(resolveUri(built))));
+                if (this.pending.size() > fetchThreads) {
+                    writePending(1);
+                }
+            }
+        }
+
+        private void writePending(int count) throws RepositoryException {
+            while (count-- > 0 && !this.pending.isEmpty()) {
+                final PendingFile p = this.pending.peek();
+                addFile(session, p.file, this.stagingPath, p.content, null);
+                this.pending.remove();
+                if (this.chunks != null) {
+                    this.chunks.fileAdded();
+                }
+            }
+        }
+
+        @Override
+        public void startRepresentation(final MetsDiv div) throws RepositoryException {
+            writePending(this.pending.size());
+            final List<String> admIds = div.getAdmIds();
+            final Representation.Builder rep = new Representation.Builder();
+            rep.identifier(identifier(div.getId()));
+            rep.title(div.getLabel());
+            rep.technical(readMetadata(reader.getRecord(admIds, Section.TECHNICAL)));
+            rep.source(readMetadata(reader.getRecord(admIds, Section.SOURCE)));
+            rep.rights(readMetadata(reader.getRecord(admIds, Section.RIGHTS)));
+            rep.provenance(readMetadata(reader.getRecord(admIds, Section.PROVENANCE)));
+            final FedoraObject repObject = addRepresentation(session, rep.build(), this.versionPath, null, null);
+            this.repNode = repObject.getNode();
+            this.repPath = repObject.getPath();
+            this.repUris.add(subjects.getSubject(this.repPath).getURI());
+            this.fileUris = new ArrayList<>();
+        }
+
+        @Override
+        public void filePointer(final String fileId) throws RepositoryException {
+            final String staged = this.stagingPath + "/" + fileId;
+            if (!session.nodeExists(staged)) {
+                throw new RepositoryException("File '" + fileId + "' is either missing in the fileSec or referenced by more than one representation");
+            }
+            final String filePath = this.repPath + "/" + fileId;
+            session.move(staged, filePath);
+
+            /* the bitstreams have been moved along with the file, so update their references */
+            final Node fileNode = session.getNode(filePath);
+            final List<String> bsUris = new ArrayList<>();
+            for (final NodeIterator children = fileNode.getNodes(); children.hasNext();) {
+                final Node child = children.nextNode();
+                if (child.isNodeType("scape:bitstream")) {
+                    bsUris.add(subjects.getSubject(child.getPath()).getURI());
+                }
+            }
+            setStrings(fileNode, HAS_BITSTREAM, bsUris);
+            this.fileUris.add(subjects.getSubject(filePath).getURI());
+        }
+
+        @Override
+        public void endRepresentation() throws RepositoryException {
+            setStrings(this.repNode, HAS_FILE, this.fileUris);
+            this.repNode = null;
+            this.fileUris = null;
+        }
+
+        @Override
+        public void endEntity() throws RepositoryException {
+            writePending(this.pending.size());
+            setStrings(this.versionNode, HAS_REPRESENTATION, this.repUris);
+            /* files not referenced by any representation are dropped */
+            session.getNode(this.stagingPath).remove();
+        }
+    }
+
+    private static final class PendingFile {
+
+        private final File file;
+
+        private final Future<java.io.File> content;
+
+        private PendingFile(final File file, final Future<java.io.File> content) {
+            this.file = file;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Saves the nodes of an {@link IntellectualEntity} every given number of
+     * files during a chunked ingest. The entity is marked as being ingested
+     * until its current version is set
+     */
+    private static final class IngestChunks {
+
+        private final Session session;
+
+        private final int size;
+
+        private int count;
+
+        private String entityPath;
+
+        private boolean saved;
+
+        private IngestChunks(final Session session, final int size) {
+            this.session = session;
+            this.size = size;
+        }
+
+        private void staging(final String path, final Node entityNode) throws RepositoryException {
+            this.entityPath = path;
+            setString(entityNode, HAS_LIFECYCLESTATE, LifecycleState.State.INGESTING.name());
+            setString(entityNode, HAS_LIFECYCLESTATE_DETAILS, "ingest started at " + new Date().getTime());
+        }
+
+        private void fileAdded() throws RepositoryException {
+            if (++this.count >= this.size) {
+                this.session.save();
+                this.saved = true;
+                this.count = 0;
+            }
+        }
+    }
+
+    /**
+     * Runs a bulk ingest as a pipeline: a reader thread splits the collection
+     * into METS documents, which are parsed by the parse workers which in turn
+     * hand the binaries to the fetch workers. The parsed entities are queued
+     * in document order and persisted and committed by the calling thread,
+     * since a {@link Session} must not be shared between threads. The queue is
+     * bounded, so that the reader is held back if persisting is the bottleneck
+     */
+    private final class BulkIngest {
+
+        private final Session session;
+
+        private final BulkIngestHandler handler;
+
+        private final BlockingQueue<Future<Parsed>> parsed = new ArrayBlockingQueue<>(pipelineQueueSize);
+
+        /* marks the end of the collection */
+        private final Future<Parsed> end = new FutureTask<>(new Callable<Parsed>() {
+
+            @Override
+            public Parsed call() {
+                return null;
+            }
+        });
+
+        /* the entities created since the last commit */
+        private final List<Parsed> batch = new ArrayList<>();
+
+        private final List<String> ids = new ArrayList<>();
+
+        private volatile boolean cancelled;
+
+        private volatile Exception readError;
+
+        private BulkIngest(final Session session, final BulkIngestHandler handler) {
+            this.session = session;
+            this.handler = handler;
+        }
+
+        private void run(final InputStream src) throws RepositoryException {
+            readExecutor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    read(src);
+                }
+            });
+            try {
+                Future<Parsed> next;
+                while ((next = this.parsed.take()) != this.end) {
+                    pipelinePending.decrementAndGet();
+                    persist(await(next));
+                }
+                pipelinePending.decrementAndGet();
+                commit();
+                if (this.readError != null) {
+                    throw new RepositoryException("Unable to read the METS collection", this.readError);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryException("Interrupted while ingesting the METS collection", e);
+            } finally {
+                /* stops the reader, which discards what it has parsed ahead */
+                this.cancelled = true;
+                discard(this.batch);
+                this.batch.clear();
+                drain();
+            }
+        }
+
+        /* drop the entities left in the queue once the ingest has been stopped */
+        private void drain() {
+            final List<Future<Parsed>> left = new ArrayList<>();
+            this.parsed.drainTo(left);
+            for (Future<Parsed> f : left) {
+                pipelinePending.decrementAndGet();
+                if (f != this.end) {
+                    /* wait for the parse, so that the binaries it fetches can be discarded */
+                    discard(Collections.singletonList(await(f)));
+                }
+            }
+        }
+
+        /* runs on the reader thread */
+        private void read(final InputStream src) {
+            try (final MetsCollectionReader reader = new MetsCollectionReader(src)) {
+                byte[] document;
+                while (!this.cancelled && (document = reader.next()) != null) {
+                    enqueue(parseExecutor.submit(parse(document)));
+                }
+            } catch (RepositoryException | IOException | RuntimeException e) {
+                this.readError = e;
+            } finally {
+                enqueue(this.end);
+            }
+        }
+
+        private void enqueue(final Future<Parsed> f) {
+            pipelinePending.incrementAndGet();
+            try {
+                while (!this.cancelled) {
+                    if (this.parsed.offer(f, 100, TimeUnit.MILLISECONDS)) {
+                        if (this.cancelled) {
+                            /* the ingest might have stopped after draining the queue */
+                            drain();
+                        }
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pipelinePending.decrementAndGet();
+            /* nobody will persist the entity */
+            if (f != this.end) {
+                discard(Collections.singletonList(await(f)));
+            }
+        }
+
+        private Callable<Parsed> parse(final byte[] document) {
+            return new Callable<Parsed>() {
+
+                @Override
+                public Parsed call() {
+                    final Parsed p = new Parsed(document);
+                    final Timer.Context time = metadataTimer.time();
+                    try {
+                        p.entity = marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(document));
+                    } catch (JAXBException | RuntimeException e) {
+                        p.error = e;
+                        return p;
+                    } finally {
+                        time.stop();
+                    }
+                    if (!referencedContent && !cancelled && p.entity.getRepresentations() != null) {
+                        try {
+                            /*
+                             * only the first binaries are fetched ahead, since
+                             * every entity waiting in the pipeline keeps its
+                             * spooled binaries
+                             */
+                            for (Representation r : p.entity.getRepresentations()) {
+                                if (r.getFiles() == null) {
+                                    continue;
+                                }
+                                for (File f : r.getFiles()) {
+                                    if (p.binaries.size() >= fetchThreads) {
+                                        break;
+                                    }
+                                    p.binaries.put(f, fetchBinary(resolveUri(f)));
+                                }
+                            }
+                        } catch (RepositoryException e) {
+                            /* the entity is reported as failed, so nobody will consume the binaries fetched so far */
+                            discardBinaries(p.binaries.values());
+                            p.binaries.clear();
+                            p.error = e;
+                        }
+                    }
+                    return p;
+                }
+            };
+        }
+
+        private Parsed await(final Future<Parsed> f) {
+            try {
+                return f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Parsed(null);
+            } catch (ExecutionException e) {
+                final Parsed p = new Parsed(null);
+                p.error = e.getCause();
+                return p;
+            }
+        }
+
+        private void persist(final Parsed p) {
+            if (p.error != null) {
+                this.handler.failed(peekId(p.document), failureReason(p.error));
+                return;
+            }
+            try {
+                this.ids.add(createEntity(this.session, p.entity, null, p.binaries, null));
+                this.batch.add(p);
+            } catch (ItemExistsException e) {
+                /* nothing has been created for an existing entity */
+                discard(Collections.singletonList(p));
+                this.handler.failed(peekId(p.document), failureReason(e));
+                return;
+            } catch (RepositoryException | RuntimeException e) {
+                /* the pending changes are lost, so the batch has to be redone */
+                discard(Collections.singletonList(p));
+                redo();
+                this.handler.failed(peekId(p.document), failureReason(e));
+                return;
+            }
+            if (this.batch.size() >= bulkCommitSize) {
+                commit();
+            }
+        }
+
+        private void commit() {
+            if (this.batch.isEmpty()) {
+                return;
+            }
+            try {
+                this.session.save();
+                for (String id : this.ids) {
+                    this.handler.ingested(id);
+                }
+                discard(this.batch);
+                this.batch.clear();
+                this.ids.clear();
+            } catch (RepositoryException | RuntimeException e) {
+                LOG.warn("bulk commit of {} entities failed, saving them one by one: {}", this.batch.size(), e.getMessage());
+                redo();
+            }
+        }
+
+        private void redo() {
+            try {
+                this.session.refresh(false);
+            } catch (RepositoryException inner) {
+                LOG.error("Unable to discard the changes of the failed bulk ingest", inner);
+            }
+            discard(this.batch);
+            final List<byte[]> documents = new ArrayList<>(this.batch.size());
+            for (Parsed p : this.batch) {
+                documents.add(p.document);
+            }
+            this.batch.clear();
+            this.ids.clear();
+            addEntitiesSingly(this.session, documents, this.handler);
+        }
+
+        private void discard(final List<Parsed> entities) {
+            for (Parsed p : entities) {
+                discardBinaries(p.binaries.values());
+            }
+        }
+    }
+
+    /**
+     * Forgets the cached current version of an entity when its current
+     * version has been changed or removed, e.g. by another connector instance
+     * sharing the repository. Only receives the property events of entity
+     * nodes
+     */
+    private final class CurrentVersionListener implements EventListener {
+
+        private final String property = "/" + prefix(HAS_CURRENT_VERSION);
+
+        @Override
+        public void onEvent(EventIterator events) {
+            while (events.hasNext()) {
+                final Event event = events.nextEvent();
+                try {
+                    final String path = event.getPath();
+                    if (!path.endsWith(property)) {
+                        continue;
+                    }
+                    final String entityPath = path.substring(0, path.length() - property.length());
+                    final String entityId = entityPath.substring(entityPath.lastIndexOf('/') + 1);
+                    String versionPath = null;
+                    observationSession.refresh(false);
+                    if (event.getType() != Event.PROPERTY_REMOVED && observationSession.propertyExists(path)) {
+                        versionPath = getCurrentVersionPath(observationSession.getNode(entityPath));
+                    }
+                    currentVersionObserved(entityId, versionPath);
+                } catch (RepositoryException e) {
+                    LOG.warn("Unable to read entity event", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the cached current version of an entity when the entity has been
+     * removed. Only receives the removals of the children of the entity folder
+     */
+    private final class EntityRemovalListener implements EventListener {
+
+        @Override
+        public void onEvent(EventIterator events) {
+            while (events.hasNext()) {
+                try {
+                    final String path = events.nextEvent().getPath();
+                    currentVersionChanged(path.substring(path.lastIndexOf('/') + 1), null);
+                } catch (RepositoryException e) {
+                    LOG.warn("Unable to read entity event", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A METS document of a bulk ingest together with the parsed
+     * {@link IntellectualEntity} and the binaries being fetched for its files
+     */
+    private static final class Parsed {
+
+        private final byte[] document;
+
+        private final Map<File, Future<java.io.File>> binaries = new IdentityHashMap<>();
+
+        private IntellectualEntity entity;
+
+        private Throwable error;
+
+        private Parsed(final byte[] document) {
+            this.document = document;
+        }
+    }
+
+    /**
+     * Receives the outcome of each entity of a bulk ingest, see
+     * {@link ConnectorService#addEntities(Session, InputStream, BulkIngestHandler)}
+     */
+    public interface BulkIngestHandler {
+
+        /**
+         * Called after an {@link IntellectualEntity} has been saved
+         * 
+         * @param id
+         *            the id of the {@link IntellectualEntity}
+         */
+        void ingested(String id);
+
+        /**
+         * Called if an {@link IntellectualEntity} could not be saved
+         * 
+         * @param id
+         *            the id of the {@link IntellectualEntity} or
+         *            <code>null</code> if the METS document has no id
+         * @param reason
+         *            the reason of the failure
+         */
+        void failed(String id, String reason);
+    }
 }
@@ -0,0 +1,211 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.codahale.metrics.Meter;
+
+import eu.scape_project.util.ConnectorMetrics;
+
+/**
+ * Decides whether new submissions are accepted by the asynchronous ingest
+ * queue. Once the number of queued items or the number of bytes spooled in the
+ * queue exceeds its high watermark, submissions are rejected until the queue
+ * has been drained below the low watermarks again. The time a client should
+ * wait before retrying is estimated from the rate at which the
+ * {@link AsyncIngestEngine} drains the queue
+ *
+ * @author frank asseg
+ *
+ */
+public class IngestAdmissionControl {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestAdmissionControl.class);
+
+    @Autowired
+    private ConnectorService connectorService;
+
+    @Autowired
+    private ConnectorMetrics metrics;
+
+    private int highWatermark = 10000;
+
+    private int lowWatermark = 5000;
+
+    private long highWatermarkBytes = 10L * 1024 * 1024 * 1024;
+
+    private long lowWatermarkBytes = 5L * 1024 * 1024 * 1024;
+
+    private long maxRetryAfter = 300;
+
+    private volatile boolean throttling;
+
+    private Meter rejected;
+
+    /**
+     * Get the number of queued items at which submissions are rejected
+     *
+     * @return the high watermark
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Set the number of queued items at which submissions are rejected
+     *
+     * @param highWatermark
+     *            the high watermark
+     */
+    public void setHighWatermark(int highWatermark) {
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Get the number of queued items below which submissions are accepted
+     * again
+     *
+     * @return the low watermark
+     */
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Set the number of queued items below which submissions are accepted
+     * again
+     *
+     * @param lowWatermark
+     *            the low watermark
+     */
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Get the number of bytes spooled in the queue at which submissions are
+     * rejected
+     *
+     * @return the high watermark in bytes
+     */
+    public long getHighWatermarkBytes() {
+        return highWatermarkBytes;
+    }
+
+    /**
+     * Set the number of bytes spooled in the queue at which submissions are
+     * rejected
+     *
+     * @param highWatermarkBytes
+     *            the high watermark in bytes
+     */
+    public void setHighWatermarkBytes(long highWatermarkBytes) {
+        this.highWatermarkBytes = highWatermarkBytes;
+    }
+
+    /**
+     * Get the number of bytes spooled in the queue below which submissions are
+     * accepted again
+     *
+     * @return the low watermark in bytes
+     */
+    public long getLowWatermarkBytes() {
+        return lowWatermarkBytes;
+    }
+
+    /**
+     * Set the number of bytes spooled in the queue below which submissions are
+     * accepted again
+     *
+     * @param lowWatermarkBytes
+     *            the low watermark in bytes
+     */
+    public void setLowWatermarkBytes(long lowWatermarkBytes) {
+        this.lowWatermarkBytes = lowWatermarkBytes;
+    }
+
+    /**
+     * Get the maximum number of seconds a rejected client is asked to wait
+     *
+     * @return the maximum retry delay in seconds
+     */
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * Set the maximum number of seconds a rejected client is asked to wait.
+     * This is also used if the drain rate of the queue is unknown
+     *
+     * @param maxRetryAfter
+     *            the maximum retry delay in seconds
+     */
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * Register the metrics
+     */
+    public void init() {
+        this.rejected = this.metrics.getRegistry().meter(name(IngestAdmissionControl.class, "rejected"));
+    }
+
+    /**
+     * Check whether a new submission can be queued
+     *
+     * @return <code>true</code> if the submission is accepted,
+     *         <code>false</code> if the queue is full
+     */
+    public boolean admit() {
+        final int depth = this.connectorService.getQueueDepth();
+        final long bytes = this.connectorService.getQueueBytes();
+        if (this.throttling) {
+            if (depth <= this.lowWatermark && bytes <= this.lowWatermarkBytes) {
+                LOG.info("ingest queue drained to {} items ({} bytes), accepting submissions again", depth, bytes);
+                this.throttling = false;
+            }
+        } else if (depth >= this.highWatermark || bytes >= this.highWatermarkBytes) {
+            LOG.warn("ingest queue reached {} items ({} bytes), rejecting submissions", depth, bytes);
+            this.throttling = true;
+        }
+        if (this.throttling) {
+            this.rejected.mark();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the number of seconds until the queue has been drained below
+     * the low watermark using the rate at which items have been ingested during
+     * the last minute
+     *
+     * @return the number of seconds a client should wait before retrying
+     */
+    public long getRetryAfter() {
+        final Meter ingested = this.metrics.getRegistry().meter(name(AsyncIngestEngine.class, "ingested"));
+        final double rate = ingested.getOneMinuteRate();
+        final int excess = Math.max(1, this.connectorService.getQueueDepth() - this.lowWatermark);
+        if (rate <= 0) {
+            return this.maxRetryAfter;
+        }
+        return Math.max(1, Math.min(this.maxRetryAfter, (long) Math.ceil(excess / rate)));
+    }
+}
@@ -0,0 +1,322 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An in-memory index of the items in the ingest queue keyed by their ingest
+ * state and the lane they have been submitted to. Items are kept in the order
+ * in which they have been submitted, so that the oldest queued item of a lane
+ * can be looked up without reading the queue from the repository. An item
+ * which returns to a state, e.g. after a failed claim or a retry, takes up its
+ * original position again. The index also keeps track of the number of bytes spooled in the
+ * queue. The index is rebuilt from the repository on startup and updated by
+ * the {@link ConnectorService} whenever it changes the state of a queue item
+ *
+ * @author frank asseg
+ *
+ */
+public class IngestQueueIndex {
+
+    /* state -> lane -> items */
+    private final Map<String, Map<String, Set<String>>> itemsByState = new HashMap<>();
+
+    private final Map<String, String> states = new HashMap<>();
+
+    private final Map<String, String> lanes = new HashMap<>();
+
+    private final Map<String, Long> enqueued = new HashMap<>();
+
+    /* orders the items by the time they have been submitted */
+    private final Comparator<String> byEnqueueTime = new Comparator<String>() {
+
+        @Override
+        public int compare(final String a, final String b) {
+            final int c = Long.compare(enqueued.get(a), enqueued.get(b));
+            return (c != 0) ? c : a.compareTo(b);
+        }
+    };
+
+    private final Map<String, Long> sizes = new HashMap<>();
+
+    private long bytes;
+
+    private volatile boolean loaded;
+
+    /**
+     * Check if the index has been populated from the repository
+     *
+     * @return <code>true</code> if the index has been populated
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Mark the index as populated from the repository
+     */
+    public void setLoaded() {
+        this.loaded = true;
+    }
+
+    /**
+     * Set the state of an item. The item keeps the lane and the submission
+     * time it has been indexed with
+     *
+     * @param item
+     *            the path of the queue item
+     * @param state
+     *            the new ingest state of the item
+     */
+    public synchronized void put(final String item, final String state) {
+        final String lane = lanes.containsKey(item) ? lanes.get(item) : ConnectorService.DEFAULT_LANE;
+        put(item, state, lane);
+    }
+
+    /**
+     * Set the state and the lane of an item. The item keeps the submission
+     * time it has been indexed with, items which are not indexed yet are
+     * considered to be submitted now
+     *
+     * @param item
+     *            the path of the queue item
+     * @param state
+     *            the new ingest state of the item
+     * @param lane
+     *            the lane of the item
+     */
+    public synchronized void put(final String item, final String state, final String lane) {
+        final Long time = enqueued.get(item);
+        put(item, state, lane, (time == null) ? System.currentTimeMillis() : time);
+    }
+
+    /**
+     * Set the state and the lane of an item, and record the size of its
+     * document and the time it has been submitted
+     *
+     * @param item
+     *            the path of the queue item
+     * @param state
+     *            the new ingest state of the item
+     * @param lane
+     *            the lane of the item
+     * @param size
+     *            the size of the item's document in bytes
+     * @param enqueuedAt
+     *            the time in milliseconds since the epoch at which the item
+     *            has been submitted, e.g. the creation date of its node
+     */
+    public synchronized void put(final String item, final String state, final String lane, final long size, final long enqueuedAt) {
+        put(item, state, lane, enqueuedAt);
+        final Long previous = sizes.put(item, size);
+        bytes += size - (previous == null ? 0 : previous);
+    }
+
+    private void put(final String item, final String state, final String lane, final long enqueuedAt) {
+        final String previous = states.remove(item);
+        if (previous != null) {
+            /* remove the item before its position changes */
+            itemsByState.get(previous).get(lanes.get(item)).remove(item);
+        }
+        enqueued.put(item, enqueuedAt);
+        Map<String, Set<String>> byLane = itemsByState.get(state);
+        if (byLane == null) {
+            byLane = new HashMap<>();
+            itemsByState.put(state, byLane);
+        }
+        Set<String> items = byLane.get(lane);
+        if (items == null) {
+            items = new TreeSet<>(byEnqueueTime);
+            byLane.put(lane, items);
+        }
+        items.add(item);
+        states.put(item, state);
+        lanes.put(item, lane);
+    }
+
+    /**
+     * Remove an item from the index
+     *
+     * @param item
+     *            the path of the queue item
+     */
+    public synchronized void remove(final String item) {
+        final String state = states.remove(item);
+        final String lane = lanes.remove(item);
+        if (state != null) {
+            itemsByState.get(state).get(lane).remove(item);
+        }
+        enqueued.remove(item);
+        final Long size = sizes.remove(item);
+        if (size != null) {
+            bytes -= size;
+        }
+    }
+
+    /**
+     * Get the item of a lane in a given state which has been submitted first
+     *
+     * @param state
+     *            the ingest state
+     * @param lane
+     *            the lane
+     * @return the path of the item or <code>null</code> if no item of the
+     *         lane is in that state
+     */
+    public synchronized String first(final String state, final String lane) {
+        final Set<String> items = get(state, lane);
+        if (items == null) {
+            return null;
+        }
+        final Iterator<String> it = items.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * Get all items in a given state
+     *
+     * @param state
+     *            the ingest state
+     * @return a {@link List} containing the paths of the items
+     */
+    public synchronized List<String> items(final String state) {
+        final List<String> result = new ArrayList<>();
+        final Map<String, Set<String>> byLane = itemsByState.get(state);
+        if (byLane != null) {
+            for (Set<String> items : byLane.values()) {
+                result.addAll(items);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of items in a given state
+     *
+     * @param state
+     *            the ingest state
+     * @return the number of items
+     */
+    public synchronized int count(final String state) {
+        int count = 0;
+        final Map<String, Set<String>> byLane = itemsByState.get(state);
+        if (byLane != null) {
+            for (Set<String> items : byLane.values()) {
+                count += items.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of items of a lane in a given state
+     *
+     * @param state
+     *            the ingest state
+     * @param lane
+     *            the lane
+     * @return the number of items
+     */
+    public synchronized int count(final String state, final String lane) {
+        final Set<String> items = get(state, lane);
+        return items == null ? 0 : items.size();
+    }
+
+    /**
+     * Get the time since the oldest item of a lane in a given state has been
+     * submitted
+     *
+     * @param state
+     *            the ingest state
+     * @param lane
+     *            the lane
+     * @return the time in milliseconds or 0 if no item of the lane is in that
+     *         state
+     */
+    public synchronized long getAge(final String state, final String lane) {
+        final String item = first(state, lane);
+        return item == null ? 0 : System.currentTimeMillis() - enqueued.get(item);
+    }
+
+    /**
+     * Get the size of an item's document
+     *
+     * @param item
+     *            the path of the queue item
+     * @return the size in bytes or 0 if the size is unknown
+     */
+    public synchronized long getSize(final String item) {
+        final Long size = sizes.get(item);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * Get the number of bytes of all the indexed items' documents
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the state of an item
+     *
+     * @param item
+     *            the path of the queue item
+     * @return the ingest state of the item or <code>null</code> if the item
+     *         is not indexed
+     */
+    public synchronized String getState(final String item) {
+        return states.get(item);
+    }
+
+    /**
+     * Get the lane of an item
+     *
+     * @param item
+     *            the path of the queue item
+     * @return the lane of the item or <code>null</code> if the item is not
+     *         indexed
+     */
+    public synchronized String getLane(final String item) {
+        return lanes.get(item);
+    }
+
+    /**
+     * Remove all items from the index
+     */
+    public synchronized void clear() {
+        itemsByState.clear();
+        states.clear();
+        lanes.clear();
+        enqueued.clear();
+        sizes.clear();
+        bytes = 0;
+        loaded = false;
+    }
+
+    private Set<String> get(final String state, final String lane) {
+        final Map<String, Set<String>> byLane = itemsByState.get(state);
+        return byLane == null ? null : byLane.get(lane);
+    }
+}
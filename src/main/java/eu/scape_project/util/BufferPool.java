@@ -0,0 +1,142 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of reusable in memory buffers used for serializing small records,
+ * e.g. metadata sets, before handing them to the repository. Buffers which
+ * grew larger than the retain limit are dropped on release so that a single
+ * large record does not pin its memory in the pool
+ *
+ * @author frank asseg
+ *
+ */
+public class BufferPool {
+
+    private final BlockingQueue<Buffer> idle;
+
+    private final int initialCapacity;
+
+    private final int maxRetainedCapacity;
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    /**
+     * Create a new {@link BufferPool}
+     *
+     * @param maxIdle
+     *            the maximum number of idle buffers kept for reuse
+     * @param initialCapacity
+     *            the initial capacity in bytes of newly created buffers
+     * @param maxRetainedCapacity
+     *            buffers larger than this number of bytes are not kept for
+     *            reuse
+     */
+    public BufferPool(int maxIdle, int initialCapacity, int maxRetainedCapacity) {
+        this.idle = new LinkedBlockingQueue<>(maxIdle);
+        this.initialCapacity = initialCapacity;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+
+    /**
+     * Borrow an empty {@link Buffer} from the pool. The caller has to hand the
+     * buffer back using {@link #release(Buffer)}
+     *
+     * @return an empty {@link Buffer}
+     */
+    public Buffer borrow() {
+        Buffer b = idle.poll();
+        if (b == null) {
+            b = new Buffer(initialCapacity);
+            created.incrementAndGet();
+        }
+        inUse.incrementAndGet();
+        return b;
+    }
+
+    /**
+     * Hand a {@link Buffer} back to the pool
+     *
+     * @param buffer
+     *            the {@link Buffer} obtained by {@link #borrow()}
+     */
+    public void release(Buffer buffer) {
+        inUse.decrementAndGet();
+        if (buffer.capacity() <= maxRetainedCapacity) {
+            buffer.reset();
+            idle.offer(buffer);
+        }
+    }
+
+    /**
+     * Get the number of buffers created by this pool so far
+     *
+     * @return the number of buffers created
+     */
+    public int getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Get the number of buffers currently borrowed
+     *
+     * @return the number of buffers in use
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Get the number of buffers available for reuse
+     *
+     * @return the number of idle buffers
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} whose content can be read without
+     * copying the underlying byte array
+     */
+    public static class Buffer extends ByteArrayOutputStream {
+
+        Buffer(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        /**
+         * Get an {@link InputStream} reading the content of this buffer. The
+         * stream must not be used after the buffer has been released
+         *
+         * @return an {@link InputStream} serving the buffer's content
+         */
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
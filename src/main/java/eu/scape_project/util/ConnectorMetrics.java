@@ -0,0 +1,65 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Holds the {@link MetricRegistry} of the connector api and publishes all the
+ * registered metrics via JMX in the domain <code>eu.scape_project</code>
+ *
+ * @author frank asseg
+ *
+ */
+@Component
+public class ConnectorMetrics {
+
+    public static final String JMX_DOMAIN = "eu.scape_project";
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    private JmxReporter reporter;
+
+    /**
+     * Get the {@link MetricRegistry} used by the connector api
+     *
+     * @return the {@link MetricRegistry}
+     */
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Start publishing the metrics via JMX
+     */
+    public synchronized void start() {
+        if (reporter == null) {
+            reporter = JmxReporter.forRegistry(registry).inDomain(JMX_DOMAIN).build();
+            reporter.start();
+        }
+    }
+
+    /**
+     * Stop publishing the metrics via JMX
+     */
+    public synchronized void stop() {
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
+    }
+}
@@ -39,6 +39,26 @@ public class ContentTypeInputStream extends InputStream {
         return src.read();
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return src.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return src.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return src.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        src.close();
+    }
+
     /**
      * Get the Content-Type associated with this {@link InputStream}
      * 
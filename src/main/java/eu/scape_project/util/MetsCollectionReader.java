@@ -0,0 +1,185 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Splits a stream containing many METS documents, e.g. a serialized
+ * {@link eu.scape_project.model.IntellectualEntityCollection}, into single
+ * METS documents. Only one document is held in memory at a time, so that
+ * arbitrarily large collections can be read
+ *
+ * @author frank asseg
+ *
+ */
+public class MetsCollectionReader implements Closeable {
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final XMLEventReader reader;
+
+    /* the namespaces declared on the currently open elements */
+    private final Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+
+    /**
+     * Create a new {@link MetsCollectionReader}
+     *
+     * @param src
+     *            the {@link InputStream} to read the METS documents from
+     * @throws RepositoryException
+     *             if the stream could not be opened
+     */
+    public MetsCollectionReader(final InputStream src) throws RepositoryException {
+        try {
+            this.reader = INPUT_FACTORY.createXMLEventReader(src);
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to read METS collection", e);
+        }
+    }
+
+    /**
+     * Read the next METS document from the stream. The document carries all
+     * the namespace declarations in scope of its root element
+     *
+     * @return the next METS document or <code>null</code> if the end of the
+     *         stream has been reached
+     * @throws RepositoryException
+     *             if the stream could not be read
+     */
+    public byte[] next() throws RepositoryException {
+        try {
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    final StartElement start = event.asStartElement();
+                    pushNamespaces(start);
+                    if (StreamingMetsReader.METS_NS.equals(start.getName().getNamespaceURI()) && start.getName().getLocalPart().equals("mets")) {
+                        final byte[] document = copyElement(start);
+                        popNamespaces();
+                        return document;
+                    }
+                } else if (event.isEndElement()) {
+                    popNamespaces();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to read METS collection", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     * copy the given element and its content into a standalone document.
+     * Consumes the events up to and including the end of the element
+     */
+    private byte[] copyElement(final StartElement start) throws XMLStreamException {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(sink, "UTF-8");
+        writer.add(EVENT_FACTORY.createStartDocument("UTF-8", "1.0"));
+        writer.add(withNamespacesInScope(start));
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            writer.add(event);
+        }
+        writer.add(EVENT_FACTORY.createEndDocument());
+        writer.close();
+        return sink.toByteArray();
+    }
+
+    private StartElement withNamespacesInScope(final StartElement start) {
+        final Map<String, String> scope = new LinkedHashMap<>();
+        final Iterator<Map<String, String>> it = namespaces.descendingIterator();
+        while (it.hasNext()) {
+            scope.putAll(it.next());
+        }
+        final List<Namespace> decls = new ArrayList<>(scope.size());
+        for (Map.Entry<String, String> ns : scope.entrySet()) {
+            if (ns.getKey().equals(XMLConstants.DEFAULT_NS_PREFIX)) {
+                decls.add(EVENT_FACTORY.createNamespace(ns.getValue()));
+            } else {
+                decls.add(EVENT_FACTORY.createNamespace(ns.getKey(), ns.getValue()));
+            }
+        }
+        return EVENT_FACTORY.createStartElement(start.getName().getPrefix(), start.getName().getNamespaceURI(), start.getName().getLocalPart(),
+                start.getAttributes(), decls.iterator());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pushNamespaces(final StartElement start) {
+        final Iterator<Namespace> it = start.getNamespaces();
+        if (!it.hasNext()) {
+            namespaces.push(Collections.<String, String> emptyMap());
+            return;
+        }
+        final Map<String, String> decls = new HashMap<>();
+        while (it.hasNext()) {
+            final Namespace ns = it.next();
+            decls.put(ns.getPrefix(), ns.getNamespaceURI());
+        }
+        namespaces.push(decls);
+    }
+
+    private void popNamespaces() {
+        namespaces.pop();
+    }
+}
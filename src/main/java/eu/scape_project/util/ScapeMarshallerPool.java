@@ -0,0 +1,403 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import eu.scape_project.model.LifecycleState;
+
+/**
+ * An application wide pool of {@link ScapeMarshaller}s. Creating a
+ * {@link ScapeMarshaller} builds a JAXB context over the whole METS, PREMIS,
+ * MIX and FITS schema set, so instances are created once and shared between
+ * requests instead of being created by every resource. Since the underlying
+ * JAX-B marshallers are not thread safe a {@link ScapeMarshaller} is only ever
+ * used by a single thread between {@link #borrow()} and
+ * {@link #release(ScapeMarshaller)}. Small documents like lifecycle states
+ * and version lists are serialized into a buffer, so that a slow client does
+ * not keep a marshaller from being used by other requests. Documents larger
+ * than the buffer size, e.g. whole entities, are written straight to the
+ * client instead of being held in memory a second time, at the cost of
+ * keeping the marshaller until the client has read them
+ *
+ * @author frank asseg
+ *
+ */
+@Component
+public class ScapeMarshallerPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScapeMarshallerPool.class);
+
+    private final BlockingQueue<ScapeMarshaller> idle = new LinkedBlockingQueue<>();
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private int size = 8;
+
+    private int initialSize = 2;
+
+    private long borrowTimeout = 1000;
+
+    private int bufferSize = 1048576;
+
+    /**
+     * Get the maximum number of {@link ScapeMarshaller}s held by this pool
+     *
+     * @return the maximum size of the pool
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Set the maximum number of {@link ScapeMarshaller}s held by this pool.
+     * Threads trying to borrow a marshaller from an exhausted pool will wait
+     * until another thread releases one or the borrow timeout has elapsed
+     *
+     * @param size
+     *            the maximum size of the pool
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Get the number of {@link ScapeMarshaller}s created during warm up
+     *
+     * @return the number of {@link ScapeMarshaller}s created on startup
+     */
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    /**
+     * Set the number of {@link ScapeMarshaller}s created during warm up
+     *
+     * @param initialSize
+     *            the number of {@link ScapeMarshaller}s created on startup
+     */
+    public void setInitialSize(int initialSize) {
+        this.initialSize = initialSize;
+    }
+
+    /**
+     * Get the time in milliseconds a thread waits for a {@link ScapeMarshaller}
+     * of an exhausted pool
+     *
+     * @return the borrow timeout in milliseconds
+     */
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    /**
+     * Set the time in milliseconds a thread waits for a
+     * {@link ScapeMarshaller} of an exhausted pool. If none has been released
+     * in time a new instance is created, which is discarded on release while
+     * the pool is full
+     *
+     * @param borrowTimeout
+     *            the borrow timeout in milliseconds
+     */
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Get the maximum number of bytes of a serialization buffered before it is
+     * written to the client
+     *
+     * @return the buffer size in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set the maximum number of bytes of a serialization buffered before it is
+     * written to the client. Larger serializations are written to the client
+     * directly while the marshaller is in use
+     *
+     * @param bufferSize
+     *            the buffer size in bytes
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Get the number of {@link ScapeMarshaller}s created by this pool so far
+     *
+     * @return the number of instances created
+     */
+    public int getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Get the number of {@link ScapeMarshaller}s currently available for
+     * borrowing
+     *
+     * @return the number of idle instances
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Create the initial {@link ScapeMarshaller}s and run a round trip through
+     * each of them, so that the first request does not have to pay for the
+     * initialization of the JAX-B context
+     *
+     * @throws JAXBException
+     *             if the initialization of the JAX-B marshalling mechanism
+     *             failed
+     */
+    public void warmUp() throws JAXBException {
+        final long start = System.currentTimeMillis();
+        final List<ScapeMarshaller> warm = new ArrayList<>(initialSize);
+        try {
+            for (int i = 0; i < Math.min(initialSize, size); i++) {
+                final ScapeMarshaller m = borrow();
+                warm.add(m);
+                final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                m.serialize(new LifecycleState("warm up", LifecycleState.State.INGESTED), sink);
+                m.deserialize(new ByteArrayInputStream(sink.toByteArray()));
+            }
+        } finally {
+            for (ScapeMarshaller m : warm) {
+                release(m);
+            }
+        }
+        LOG.info("warmed up {} marshallers in {} ms", warm.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Borrow a {@link ScapeMarshaller} from the pool. The caller has to hand
+     * the instance back using {@link #release(ScapeMarshaller)}
+     *
+     * @return a {@link ScapeMarshaller} exclusively usable by the calling
+     *         thread
+     * @throws JAXBException
+     *             if a new {@link ScapeMarshaller} could not be created
+     */
+    public ScapeMarshaller borrow() throws JAXBException {
+        ScapeMarshaller m = idle.poll();
+        if (m != null) {
+            return m;
+        }
+        if (created.incrementAndGet() <= size) {
+            try {
+                return ScapeMarshaller.newInstance();
+            } catch (JAXBException e) {
+                created.decrementAndGet();
+                throw e;
+            }
+        }
+        created.decrementAndGet();
+        try {
+            m = idle.poll(borrowTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JAXBException(e);
+        }
+        if (m != null) {
+            return m;
+        }
+        /* the pool is exhausted, so the caller gets an instance which is not kept on release */
+        LOG.warn("no marshaller has been released within {} ms, creating an additional one", borrowTimeout);
+        created.incrementAndGet();
+        try {
+            return ScapeMarshaller.newInstance();
+        } catch (JAXBException e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Hand a {@link ScapeMarshaller} back to the pool
+     *
+     * @param marshaller
+     *            the {@link ScapeMarshaller} obtained by {@link #borrow()}
+     */
+    public void release(ScapeMarshaller marshaller) {
+        if (marshaller == null) {
+            return;
+        }
+        final int count = created.get();
+        if (count > size && created.compareAndSet(count, count - 1)) {
+            /* an additional instance created while the pool was exhausted */
+            return;
+        }
+        idle.offer(marshaller);
+    }
+
+    /**
+     * Serialize an object using a pooled {@link ScapeMarshaller}
+     *
+     * @see ScapeMarshaller#serialize(Object, OutputStream)
+     */
+    public void serialize(Object o, OutputStream sink) throws JAXBException {
+        final BoundedBuffer buffer = new BoundedBuffer(sink, bufferSize);
+        final ScapeMarshaller m = borrow();
+        try {
+            m.serialize(o, buffer);
+        } finally {
+            release(m);
+        }
+        buffer.drain();
+    }
+
+    /**
+     * Serialize an object using a pooled {@link ScapeMarshaller}
+     *
+     * @see ScapeMarshaller#serialize(Object, OutputStream, boolean)
+     */
+    public void serialize(Object o, OutputStream sink, boolean useReferences) throws JAXBException {
+        final BoundedBuffer buffer = new BoundedBuffer(sink, bufferSize);
+        final ScapeMarshaller m = borrow();
+        try {
+            m.serialize(o, buffer, useReferences);
+        } finally {
+            release(m);
+        }
+        buffer.drain();
+    }
+
+    /**
+     * Deserialize an object using a pooled {@link ScapeMarshaller}
+     *
+     * @see ScapeMarshaller#deserialize(InputStream)
+     */
+    public Object deserialize(InputStream src) throws JAXBException {
+        final ScapeMarshaller m = borrow();
+        try {
+            return m.deserialize(src);
+        } finally {
+            release(m);
+        }
+    }
+
+    /**
+     * Deserialize an object of a given type using a pooled
+     * {@link ScapeMarshaller}
+     *
+     * @see ScapeMarshaller#deserialize(Class, InputStream)
+     */
+    public <T> T deserialize(Class<T> type, InputStream src) throws JAXBException {
+        final ScapeMarshaller m = borrow();
+        try {
+            return m.deserialize(type, src);
+        } finally {
+            release(m);
+        }
+    }
+
+    /**
+     * Marshal an object using the plain JAX-B marshaller of a pooled
+     * {@link ScapeMarshaller}. The object is written straight to the sink,
+     * which is meant to be an in-memory buffer like the metadata buffers of
+     * the connector
+     *
+     * @param o
+     *            the object to marshal
+     * @param sink
+     *            the {@link OutputStream} to write to
+     * @throws JAXBException
+     *             if the object could not be marshalled
+     */
+    public void marshal(Object o, OutputStream sink) throws JAXBException {
+        final ScapeMarshaller m = borrow();
+        try {
+            m.getJaxbMarshaller().marshal(o, sink);
+        } finally {
+            release(m);
+        }
+    }
+
+    /**
+     * Buffers a serialization up to a given number of bytes. Once the limit
+     * is exceeded the buffered bytes and all the following ones are written
+     * to the sink directly
+     */
+    private static final class BoundedBuffer extends OutputStream {
+
+        private final OutputStream sink;
+
+        private final int limit;
+
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        private BoundedBuffer(final OutputStream sink, final int limit) {
+            this.sink = sink;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer != null && buffer.size() + len <= limit) {
+                buffer.write(b, off, len);
+                return;
+            }
+            if (buffer != null) {
+                buffer.writeTo(sink);
+                buffer = null;
+            }
+            sink.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            /* a buffered serialization is flushed by drain() */
+            if (buffer == null) {
+                sink.flush();
+            }
+        }
+
+        /* write what has been buffered to the sink after the marshaller has been released */
+        private void drain() throws JAXBException {
+            if (buffer == null) {
+                return;
+            }
+            try {
+                buffer.writeTo(sink);
+                buffer = null;
+            } catch (IOException e) {
+                throw new JAXBException(e);
+            }
+        }
+    }
+}
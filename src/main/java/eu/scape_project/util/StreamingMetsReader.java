@@ -0,0 +1,625 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Reads a METS document of the SCAPE profile incrementally using StAX and
+ * reports the structure of the {@link eu.scape_project.model.IntellectualEntity}
+ * to a {@link Handler} as soon as the corresponding elements are complete.
+ * Administrative metadata records are spooled to a temporary file so that
+ * they can be resolved by their ID later on, which keeps the memory used for
+ * reading a document bounded by the size of the largest single metadata
+ * record instead of the size of the whole entity. What the {@link Handler}
+ * keeps of the reported structure is up to the handler
+ *
+ * @author frank asseg
+ *
+ */
+public class StreamingMetsReader implements Closeable {
+
+    public static final String METS_NS = "http://www.loc.gov/METS/";
+
+    public static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * The sections of a METS amdSec which are mapped to the metadata sets of
+     * the SCAPE data model
+     */
+    public enum Section {
+        TECHNICAL("techMD"), SOURCE("sourceMD"), RIGHTS("rightsMD"), PROVENANCE("digiprovMD");
+
+        private final String element;
+
+        private Section(String element) {
+            this.element = element;
+        }
+
+        /**
+         * Get the local name of the amdSec element holding this section
+         *
+         * @return the element name
+         */
+        public String getElement() {
+            return element;
+        }
+
+        static Section forElement(String localName) {
+            for (Section s : values()) {
+                if (s.element.equals(localName)) {
+                    return s;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Callback interface which gets notified about the parts of a METS
+     * document in document order
+     */
+    public interface Handler {
+
+        /**
+         * Called when the root element has been read
+         *
+         * @param objectId
+         *            the value of the OBJID attribute or <code>null</code>
+         */
+        void startEntity(String objectId) throws RepositoryException;
+
+        /**
+         * Called when the descriptive metadata of the entity has been read
+         *
+         * @param record
+         *            the XML document wrapped in the dmdSec
+         */
+        void descriptive(InputStream record) throws RepositoryException;
+
+        /**
+         * Called when a file element of the fileSec has been read completely
+         *
+         * @param file
+         *            the {@link MetsFile}
+         */
+        void file(MetsFile file) throws RepositoryException;
+
+        /**
+         * Called when the first file pointer of a div in the structMap has
+         * been read
+         *
+         * @param representation
+         *            the {@link MetsDiv} holding the file pointers
+         */
+        void startRepresentation(MetsDiv representation) throws RepositoryException;
+
+        /**
+         * Called for each file pointer of a representation
+         *
+         * @param fileId
+         *            the id of the file referenced
+         */
+        void filePointer(String fileId) throws RepositoryException;
+
+        /**
+         * Called when a div which contained file pointers has been closed
+         */
+        void endRepresentation() throws RepositoryException;
+
+        /**
+         * Called when the root element has been closed
+         */
+        void endEntity() throws RepositoryException;
+    }
+
+    private final java.io.File spoolFile;
+
+    private final RandomAccessFile spool;
+
+    private final Map<String, Record> records = new HashMap<>();
+
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(8 * 1024);
+
+    /* the namespaces declared on the currently open elements */
+    private final Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+
+    /**
+     * Create a new {@link StreamingMetsReader} spooling metadata records into
+     * a given directory
+     *
+     * @param spoolDirectory
+     *            the directory in which to create the spool file
+     * @throws IOException
+     *             if the spool file could not be created
+     */
+    public StreamingMetsReader(java.io.File spoolDirectory) throws IOException {
+        this.spoolFile = java.io.File.createTempFile("mets-", ".spool", spoolDirectory);
+        this.spool = new RandomAccessFile(spoolFile, "rw");
+    }
+
+    /**
+     * Read a METS document and notify a {@link Handler} about its parts
+     *
+     * @param src
+     *            the METS document
+     * @param handler
+     *            the {@link Handler} to notify
+     * @throws RepositoryException
+     *             if the document could not be read or the {@link Handler}
+     *             failed
+     */
+    public void read(final InputStream src, final Handler handler) throws RepositoryException {
+        try {
+            final XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(src);
+            final Deque<MetsDiv> divs = new ArrayDeque<>();
+            boolean descriptiveRead = false;
+            boolean inDmdSec = false;
+            boolean inStructMap = false;
+            boolean structMapRead = false;
+            String recordId = null;
+            Section recordSection = null;
+            MetsFile file = null;
+
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    final StartElement start = event.asStartElement();
+                    pushNamespaces(start);
+                    if (!METS_NS.equals(start.getName().getNamespaceURI())) {
+                        continue;
+                    }
+                    final String name = start.getName().getLocalPart();
+                    if (name.equals("mets")) {
+                        handler.startEntity(attribute(start, "OBJID"));
+                    } else if (name.equals("dmdSec")) {
+                        inDmdSec = true;
+                    } else if (name.equals("xmlData") && inDmdSec && !descriptiveRead) {
+                        if (copyFirstChild(reader)) {
+                            handler.descriptive(new ByteArrayInputStream(recordBuffer.toByteArray()));
+                            descriptiveRead = true;
+                        }
+                        popNamespaces();
+                    } else if (Section.forElement(name) != null) {
+                        recordId = attribute(start, "ID");
+                        recordSection = Section.forElement(name);
+                    } else if (name.equals("xmlData") && recordId != null) {
+                        if (copyFirstChild(reader)) {
+                            spoolRecord(recordId, recordSection);
+                        }
+                        popNamespaces();
+                    } else if (name.equals("file")) {
+                        file = new MetsFile(attribute(start, "ID"), attribute(start, "MIMETYPE"), ids(attribute(start, "ADMID")));
+                    } else if (name.equals("FLocat") && file != null) {
+                        file.href = attribute(start, new QName(XLINK_NS, "href"));
+                        file.title = attribute(start, "TITLE");
+                    } else if (name.equals("stream") && file != null) {
+                        file.streams.add(new MetsStream(attribute(start, "ID"), ids(attribute(start, "ADMID"))));
+                    } else if (name.equals("structMap") && !structMapRead) {
+                        inStructMap = true;
+                    } else if (name.equals("div") && inStructMap) {
+                        divs.push(new MetsDiv(attribute(start, "ID"), attribute(start, "LABEL"), attribute(start, "TYPE"), ids(attribute(start, "ADMID"))));
+                    } else if (name.equals("fptr") && !divs.isEmpty()) {
+                        final MetsDiv div = divs.peek();
+                        if (!div.started) {
+                            handler.startRepresentation(div);
+                            div.started = true;
+                        }
+                        handler.filePointer(attribute(start, "FILEID"));
+                    }
+                } else if (event.isEndElement()) {
+                    final EndElement end = event.asEndElement();
+                    popNamespaces();
+                    if (!METS_NS.equals(end.getName().getNamespaceURI())) {
+                        continue;
+                    }
+                    final String name = end.getName().getLocalPart();
+                    if (name.equals("mets")) {
+                        handler.endEntity();
+                    } else if (name.equals("dmdSec")) {
+                        inDmdSec = false;
+                    } else if (Section.forElement(name) != null) {
+                        recordId = null;
+                        recordSection = null;
+                    } else if (name.equals("file") && file != null) {
+                        handler.file(file);
+                        file = null;
+                    } else if (name.equals("structMap") && inStructMap) {
+                        inStructMap = false;
+                        structMapRead = true;
+                    } else if (name.equals("div") && inStructMap) {
+                        if (divs.pop().started) {
+                            handler.endRepresentation();
+                        }
+                    }
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException | IOException e) {
+            throw new RepositoryException("Unable to read METS document", e);
+        }
+    }
+
+    /**
+     * Read the OBJID attribute of a METS document's root element without
+     * reading the rest of the document
+     *
+     * @param src
+     *            the METS document
+     * @return the value of the OBJID attribute or <code>null</code> if the
+     *         root element has no such attribute
+     * @throws RepositoryException
+     *             if the document could not be read
+     */
+    public static String readObjectId(final InputStream src) throws RepositoryException {
+        try {
+            final XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(src);
+            try {
+                while (reader.hasNext()) {
+                    final XMLEvent event = reader.nextEvent();
+                    if (event.isStartElement()) {
+                        return attribute(event.asStartElement(), "OBJID");
+                    }
+                }
+                return null;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to read METS document", e);
+        }
+    }
+
+    /**
+     * Retrieve a spooled metadata record by its ID
+     *
+     * @param id
+     *            the ID of the amdSec record
+     * @return an {@link InputStream} containing the XML document wrapped by
+     *         the record or <code>null</code> if no such record exists
+     * @throws RepositoryException
+     *             if the record could not be read from the spool file
+     */
+    public InputStream getRecord(String id) throws RepositoryException {
+        final Record r = records.get(id);
+        if (r == null) {
+            return null;
+        }
+        try {
+            final byte[] data = new byte[r.length];
+            spool.seek(r.offset);
+            spool.readFully(data);
+            return new ByteArrayInputStream(data);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to read metadata record " + id, e);
+        }
+    }
+
+    /**
+     * Retrieve the first spooled metadata record of a given {@link Section}
+     * from a list of IDs
+     *
+     * @param ids
+     *            the IDs to resolve, e.g. from an ADMID attribute
+     * @param section
+     *            the {@link Section} of the record
+     * @return an {@link InputStream} containing the XML document wrapped by
+     *         the record or <code>null</code> if none of the IDs references
+     *         a record of that {@link Section}
+     * @throws RepositoryException
+     *             if the record could not be read from the spool file
+     */
+    public InputStream getRecord(List<String> ids, Section section) throws RepositoryException {
+        for (String id : ids) {
+            final Record r = records.get(id);
+            if (r != null && r.section == section) {
+                return getRecord(id);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete the spool file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            spool.close();
+        } finally {
+            spoolFile.delete();
+        }
+    }
+
+    private void spoolRecord(String id, Section section) throws IOException {
+        final long offset = spool.length();
+        spool.seek(offset);
+        spool.write(recordBuffer.toByteArray());
+        records.put(id, new Record(section, offset, recordBuffer.size()));
+    }
+
+    /*
+     * copy the first child element of the current element into the record
+     * buffer including all the namespace declarations in scope. Consumes the
+     * events up to and including the end of the current element
+     */
+    private boolean copyFirstChild(XMLEventReader reader) throws XMLStreamException {
+        recordBuffer.reset();
+        boolean copied = false;
+        int depth = 0;
+        XMLEventWriter writer = null;
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                if (depth == 0 && copied) {
+                    /* only the first child is used, skip the rest */
+                    skipElement(reader);
+                    continue;
+                }
+                if (depth == 0) {
+                    pushNamespaces(event.asStartElement());
+                    writer = OUTPUT_FACTORY.createXMLEventWriter(recordBuffer, "UTF-8");
+                    writer.add(EVENT_FACTORY.createStartDocument("UTF-8", "1.0"));
+                    writer.add(withNamespacesInScope(event.asStartElement()));
+                    popNamespaces();
+                } else {
+                    writer.add(event);
+                }
+                depth++;
+            } else if (event.isEndElement()) {
+                if (depth == 0) {
+                    /* the end of the xmlData element */
+                    break;
+                }
+                writer.add(event);
+                depth--;
+                if (depth == 0) {
+                    writer.add(EVENT_FACTORY.createEndDocument());
+                    writer.close();
+                    copied = true;
+                }
+            } else if (depth > 0) {
+                writer.add(event);
+            }
+        }
+        return copied;
+    }
+
+    private void skipElement(XMLEventReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+    }
+
+    private StartElement withNamespacesInScope(StartElement start) {
+        final Map<String, String> scope = new LinkedHashMap<>();
+        final Iterator<Map<String, String>> it = namespaces.descendingIterator();
+        while (it.hasNext()) {
+            scope.putAll(it.next());
+        }
+        final List<Namespace> decls = new ArrayList<>(scope.size());
+        for (Map.Entry<String, String> ns : scope.entrySet()) {
+            if (ns.getKey().equals(XMLConstants.DEFAULT_NS_PREFIX)) {
+                decls.add(EVENT_FACTORY.createNamespace(ns.getValue()));
+            } else {
+                decls.add(EVENT_FACTORY.createNamespace(ns.getKey(), ns.getValue()));
+            }
+        }
+        return EVENT_FACTORY.createStartElement(start.getName().getPrefix(), start.getName().getNamespaceURI(), start.getName().getLocalPart(),
+                start.getAttributes(), decls.iterator());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pushNamespaces(StartElement start) {
+        final Iterator<Namespace> it = start.getNamespaces();
+        if (!it.hasNext()) {
+            namespaces.push(Collections.<String, String> emptyMap());
+            return;
+        }
+        final Map<String, String> decls = new HashMap<>();
+        while (it.hasNext()) {
+            final Namespace ns = it.next();
+            decls.put(ns.getPrefix(), ns.getNamespaceURI());
+        }
+        namespaces.push(decls);
+    }
+
+    private void popNamespaces() {
+        namespaces.pop();
+    }
+
+    private static String attribute(StartElement start, String name) {
+        return attribute(start, new QName(name));
+    }
+
+    private static String attribute(StartElement start, QName name) {
+        final Attribute attr = start.getAttributeByName(name);
+        return attr == null ? null : attr.getValue();
+    }
+
+    private static List<String> ids(String idrefs) {
+        if (idrefs == null || idrefs.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(idrefs.trim().split("\\s+"));
+    }
+
+    private static final class Record {
+        private final Section section;
+
+        private final long offset;
+
+        private final int length;
+
+        private Record(Section section, long offset, int length) {
+            this.section = section;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A file element of the METS fileSec
+     */
+    public static final class MetsFile {
+        private final String id;
+
+        private final String mimetype;
+
+        private final List<String> admIds;
+
+        private final List<MetsStream> streams = new ArrayList<>();
+
+        private String href;
+
+        private String title;
+
+        private MetsFile(String id, String mimetype, List<String> admIds) {
+            this.id = id;
+            this.mimetype = mimetype;
+            this.admIds = admIds;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getMimetype() {
+            return mimetype;
+        }
+
+        public List<String> getAdmIds() {
+            return admIds;
+        }
+
+        public List<MetsStream> getStreams() {
+            return streams;
+        }
+
+        public String getHref() {
+            return href;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    /**
+     * A stream element of a METS file
+     */
+    public static final class MetsStream {
+        private final String id;
+
+        private final List<String> admIds;
+
+        private MetsStream(String id, List<String> admIds) {
+            this.id = id;
+            this.admIds = admIds;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public List<String> getAdmIds() {
+            return admIds;
+        }
+    }
+
+    /**
+     * A div element of the METS structMap containing file pointers
+     */
+    public static final class MetsDiv {
+        private final String id;
+
+        private final String label;
+
+        private final String type;
+
+        private final List<String> admIds;
+
+        private boolean started;
+
+        private MetsDiv(String id, String label, String type, List<String> admIds) {
+            this.id = id;
+            this.label = label;
+            this.type = type;
+            this.admIds = admIds;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public List<String> getAdmIds() {
+            return admIds;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.io.IOUtils;
+
+import eu.scape_project.util.StreamingMetsReader.Section;
+
+/**
+ * Writes a METS document of the SCAPE profile incrementally using StAX, so
+ * that an {@link eu.scape_project.model.IntellectualEntity} can be sent while
+ * it is read from the repository. The metadata records are expected to be
+ * serialized UTF-8 XML documents, e.g. as stored by the connector, and are
+ * copied into the document as they are instead of being unmarshalled and
+ * marshalled again. The parts have to be written in document order: the
+ * descriptive metadata, the amdSec records, the fileSec and the structMap
+ *
+ * @author frank asseg
+ *
+ */
+public class StreamingMetsWriter {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final String METS = "mets";
+
+    private static final String XLINK = "xlink";
+
+    /* the number of bytes searched for the XML declaration of a record */
+    private static final int DECLARATION_LIMIT = 256;
+
+    private final OutputStream sink;
+
+    private final XMLStreamWriter writer;
+
+    /**
+     * Create a new {@link StreamingMetsWriter}
+     *
+     * @param sink
+     *            the {@link OutputStream} to write the METS document to
+     * @throws RepositoryException
+     *             if the document could not be started
+     */
+    public StreamingMetsWriter(final OutputStream sink) throws RepositoryException {
+        this.sink = sink;
+        try {
+            this.writer = OUTPUT_FACTORY.createXMLStreamWriter(sink, "UTF-8");
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Start the document with the root element and the header
+     *
+     * @param objectId
+     *            the id of the entity
+     * @param recordStatus
+     *            the lifecycle state of the entity
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void startEntity(final String objectId, final String recordStatus) throws RepositoryException {
+        try {
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(METS, "mets", StreamingMetsReader.METS_NS);
+            writer.writeNamespace(METS, StreamingMetsReader.METS_NS);
+            writer.writeNamespace(XLINK, StreamingMetsReader.XLINK_NS);
+            writer.writeAttribute("ID", objectId);
+            writer.writeAttribute("OBJID", objectId);
+            writer.writeAttribute("PROFILE", "scape");
+            writer.writeEmptyElement(METS, "metsHdr", StreamingMetsReader.METS_NS);
+            writer.writeAttribute("RECORDSTATUS", recordStatus);
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Write the dmdSec holding the descriptive metadata of the entity
+     *
+     * @param id
+     *            the ID of the dmdSec
+     * @param record
+     *            the serialized metadata record
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void descriptive(final String id, final InputStream record) throws RepositoryException {
+        try {
+            writer.writeStartElement(METS, "dmdSec", StreamingMetsReader.METS_NS);
+            writer.writeAttribute("ID", id);
+            wrap(record);
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Open the amdSec
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void startAmdSec() throws RepositoryException {
+        start("amdSec");
+    }
+
+    /**
+     * Write an administrative metadata record
+     *
+     * @param section
+     *            the {@link Section} of the record
+     * @param id
+     *            the ID the record is referenced by
+     * @param record
+     *            the serialized metadata record
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void record(final Section section, final String id, final InputStream record) throws RepositoryException {
+        try {
+            writer.writeStartElement(METS, section.getElement(), StreamingMetsReader.METS_NS);
+            writer.writeAttribute("ID", id);
+            wrap(record);
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Close the amdSec
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void endAmdSec() throws RepositoryException {
+        end();
+    }
+
+    /**
+     * Open the fileSec and its file group
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void startFileSec() throws RepositoryException {
+        start("fileSec");
+        start("fileGrp");
+    }
+
+    /**
+     * Open a file element and write its location
+     *
+     * @param id
+     *            the id of the file
+     * @param mimetype
+     *            the mime type of the file
+     * @param admIds
+     *            the IDs of the file's metadata records
+     * @param href
+     *            the URI of the file's content
+     * @param title
+     *            the file name
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void startFile(final String id, final String mimetype, final List<String> admIds, final String href, final String title)
+            throws RepositoryException {
+        try {
+            writer.writeStartElement(METS, "file", StreamingMetsReader.METS_NS);
+            writer.writeAttribute("ID", id);
+            writeAdmIds(admIds);
+            if (mimetype != null) {
+                writer.writeAttribute("MIMETYPE", mimetype);
+            }
+            writer.writeEmptyElement(METS, "FLocat", StreamingMetsReader.METS_NS);
+            writer.writeAttribute(XLINK, StreamingMetsReader.XLINK_NS, "href", href);
+            writer.writeAttribute("LOCTYPE", "URL");
+            if (title != null) {
+                writer.writeAttribute("TITLE", title);
+            }
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Write a stream of the currently open file
+     *
+     * @param id
+     *            the id of the bitstream
+     * @param admIds
+     *            the IDs of the bitstream's metadata records
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void stream(final String id, final List<String> admIds) throws RepositoryException {
+        try {
+            writer.writeEmptyElement(METS, "stream", StreamingMetsReader.METS_NS);
+            writer.writeAttribute("ID", id);
+            writeAdmIds(admIds);
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Close the currently open file element
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void endFile() throws RepositoryException {
+        end();
+    }
+
+    /**
+     * Close the file group and the fileSec
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void endFileSec() throws RepositoryException {
+        end();
+        end();
+    }
+
+    /**
+     * Open the structMap and the div of the entity
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void startStructMap() throws RepositoryException {
+        try {
+            writer.writeStartElement(METS, "structMap", StreamingMetsReader.METS_NS);
+            writer.writeStartElement(METS, "div", StreamingMetsReader.METS_NS);
+            writer.writeAttribute("TYPE", "Intellectual entity");
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Open the div of a representation
+     *
+     * @param id
+     *            the id of the representation
+     * @param label
+     *            the title of the representation
+     * @param admIds
+     *            the IDs of the representation's metadata records
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void startRepresentation(final String id, final String label, final List<String> admIds) throws RepositoryException {
+        try {
+            writer.writeStartElement(METS, "div", StreamingMetsReader.METS_NS);
+            writer.writeAttribute("ID", id);
+            if (label != null) {
+                writer.writeAttribute("LABEL", label);
+            }
+            writeAdmIds(admIds);
+            writer.writeAttribute("TYPE", "Representation");
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Write a pointer to a file of the currently open representation
+     *
+     * @param fileId
+     *            the id of the file
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void filePointer(final String fileId) throws RepositoryException {
+        try {
+            writer.writeEmptyElement(METS, "fptr", StreamingMetsReader.METS_NS);
+            writer.writeAttribute("FILEID", fileId);
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    /**
+     * Close the div of the currently open representation
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void endRepresentation() throws RepositoryException {
+        end();
+    }
+
+    /**
+     * Close the div of the entity and the structMap
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void endStructMap() throws RepositoryException {
+        end();
+        end();
+    }
+
+    /**
+     * Close the root element and flush the document. The underlying
+     * {@link OutputStream} is not closed
+     *
+     * @throws RepositoryException
+     *             if the document could not be written
+     */
+    public void endEntity() throws RepositoryException {
+        try {
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    private void start(final String name) throws RepositoryException {
+        try {
+            writer.writeStartElement(METS, name, StreamingMetsReader.METS_NS);
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    private void end() throws RepositoryException {
+        try {
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new RepositoryException("Unable to write METS document", e);
+        }
+    }
+
+    private void writeAdmIds(final List<String> admIds) throws XMLStreamException {
+        if (admIds.isEmpty()) {
+            return;
+        }
+        final StringBuilder value = new StringBuilder();
+        for (String id : admIds) {
+            if (value.length() > 0) {
+                value.append(' ');
+            }
+            value.append(id);
+        }
+        writer.writeAttribute("ADMID", value.toString());
+    }
+
+    private void wrap(final InputStream record) throws XMLStreamException, RepositoryException {
+        writer.writeStartElement(METS, "mdWrap", StreamingMetsReader.METS_NS);
+        writer.writeStartElement(METS, "xmlData", StreamingMetsReader.METS_NS);
+        /* close the start tag and hand the stream over to copy the record */
+        writer.writeCharacters("");
+        writer.flush();
+        try {
+            copyRecord(record, sink);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to copy metadata record", e);
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    /*
+     * copy a serialized record without its byte order mark and XML
+     * declaration, which must not appear inside the document
+     */
+    private static void copyRecord(final InputStream src, final OutputStream sink) throws IOException {
+        try {
+            final byte[] head = new byte[DECLARATION_LIMIT];
+            int len = 0;
+            int read;
+            while (len < head.length && (read = src.read(head, len, head.length - len)) > 0) {
+                len += read;
+            }
+            int start = 0;
+            if (len >= 3 && head[0] == (byte) 0xEF && head[1] == (byte) 0xBB && head[2] == (byte) 0xBF) {
+                start = 3;
+            }
+            final String text = new String(head, start, len - start, StandardCharsets.ISO_8859_1);
+            if (text.startsWith("<?xml")) {
+                final int end = text.indexOf("?>");
+                if (end < 0) {
+                    throw new IOException("XML declaration of metadata record exceeds " + DECLARATION_LIMIT + " bytes");
+                }
+                start += end + 2;
+            }
+            sink.write(head, start, len - start);
+            IOUtils.copy(src, sink);
+        } finally {
+            src.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache which is bounded by the sum of the weights of its entries instead
+ * of their number. When a new entry pushes the total weight over the limit the
+ * least recently used entries are evicted until the cache fits again. Entries
+ * heavier than the limit are not cached at all. The cache counts its hits,
+ * misses and evictions so that its size can be tuned
+ *
+ * @author frank asseg
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the cached values
+ */
+public class WeightedLruCache<K, V> {
+
+    private final Map<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long maxWeight;
+
+    private long weight;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Create a new {@link WeightedLruCache}
+     *
+     * @param maxWeight
+     *            the maximum sum of the weights of the cached entries
+     */
+    public WeightedLruCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Get a cached value and mark it as recently used
+     *
+     * @param key
+     *            the key of the value
+     * @return the cached value or <code>null</code> if the key is not cached
+     */
+    public synchronized V get(final K key) {
+        final Entry<V> e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    /**
+     * Put a value into the cache, evicting the least recently used entries if
+     * the cache grows too heavy
+     *
+     * @param key
+     *            the key of the value
+     * @param value
+     *            the value to cache
+     * @param entryWeight
+     *            the weight of the value
+     */
+    public synchronized void put(final K key, final V value, final long entryWeight) {
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        final Entry<V> previous = entries.put(key, new Entry<>(value, entryWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+        final Iterator<Entry<V>> it = entries.values().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            final Entry<V> eldest = it.next();
+            it.remove();
+            weight -= eldest.weight;
+            evictions++;
+        }
+    }
+
+    /**
+     * Get the number of cached entries
+     *
+     * @return the number of entries
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Get the sum of the weights of the cached entries
+     *
+     * @return the weight of the cache
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Get the number of lookups which found a cached value
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups which did not find a cached value
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of entries which have been evicted to make room for new
+     * ones
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+
+        private final long weight;
+
+        private Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -108,6 +108,7 @@ public class ScapeInitializer implements AbstractResourceModelListener {
             versionType.setQueryable(true);
             versionType.setAbstract(false);
             versionType.getPropertyDefinitionTemplates().add(createMultiPropertyDefTemplate(session, mgr, prefix(HAS_REPRESENTATION), PropertyType.STRING));
+            versionType.getPropertyDefinitionTemplates().add(createMultiPropertyDefTemplate(session, mgr, prefix(HAS_SHARED), PropertyType.STRING));
 
             final NodeTypeTemplate repType = mgr.createNodeTypeTemplate();
             repType.setName("scape:representation");
@@ -116,6 +117,7 @@ public class ScapeInitializer implements AbstractResourceModelListener {
             repType.setQueryable(true);
             repType.setAbstract(false);
             repType.getPropertyDefinitionTemplates().add(createMultiPropertyDefTemplate(session, mgr, prefix(HAS_FILE), PropertyType.STRING));
+            repType.getPropertyDefinitionTemplates().add(createMultiPropertyDefTemplate(session, mgr, prefix(HAS_SHARED), PropertyType.STRING));
 
             final NodeTypeTemplate fileType = mgr.createNodeTypeTemplate();
             fileType.setName("scape:file");
@@ -124,6 +126,7 @@ public class ScapeInitializer implements AbstractResourceModelListener {
             fileType.setQueryable(true);
             fileType.setAbstract(false);
             fileType.getPropertyDefinitionTemplates().add(createMultiPropertyDefTemplate(session, mgr, prefix(HAS_BITSTREAM), PropertyType.STRING));
+            fileType.getPropertyDefinitionTemplates().add(createMultiPropertyDefTemplate(session, mgr, prefix(HAS_SHARED), PropertyType.STRING));
 
             final NodeTypeTemplate bsType = mgr.createNodeTypeTemplate();
             bsType.setName("scape:bitstream");
@@ -154,12 +157,20 @@ public class ScapeInitializer implements AbstractResourceModelListener {
             queueItemType.setQueryable(true);
             queueItemType.setAbstract(false);
             queueItemType.getPropertyDefinitionTemplates().add(createSinglePropertyDefTemplate(session, mgr, prefix(HAS_INGEST_STATE), PropertyType.STRING));
+            queueItemType.getPropertyDefinitionTemplates().add(createSinglePropertyDefTemplate(session, mgr, prefix(HAS_INGEST_OWNER), PropertyType.STRING));
+            queueItemType.getPropertyDefinitionTemplates().add(createSinglePropertyDefTemplate(session, mgr, prefix(HAS_INGEST_LEASE_EXPIRY), PropertyType.STRING));
+            queueItemType.getPropertyDefinitionTemplates().add(createSinglePropertyDefTemplate(session, mgr, prefix(HAS_INGEST_ATTEMPTS), PropertyType.STRING));
+            queueItemType.getPropertyDefinitionTemplates().add(createSinglePropertyDefTemplate(session, mgr, prefix(HAS_INGEST_LANE), PropertyType.STRING));
+            queueItemType.getPropertyDefinitionTemplates().add(createSinglePropertyDefTemplate(session, mgr, prefix(HAS_INGEST_NOT_BEFORE), PropertyType.STRING));
+            queueItemType.getPropertyDefinitionTemplates().add(createSinglePropertyDefTemplate(session, mgr, prefix(HAS_INGEST_FAILURE), PropertyType.STRING));
 
             // and register them
             mgr.registerNodeTypes(new NodeTypeDefinition[] { fileType, versionType, entityType, repType, queueType, bsType, metadataType, queueItemType }, true);
 
             /* make sure that the queue object exists for async ingests */
             this.objectService.createObject(session, ConnectorService.QUEUE_NODE).getNode().addMixin("scape:async-queue");
+            /* and the dead letter object for the items which could not be ingested */
+            this.objectService.createObject(session, ConnectorService.DEAD_LETTER_NODE).getNode().addMixin("scape:async-queue");
             session.save();
         } catch (RepositoryException e) {
             LOG.error("Error while setting up scape connector api", e);
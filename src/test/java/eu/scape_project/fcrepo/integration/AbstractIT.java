@@ -20,9 +20,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.Collections;
+import java.util.List;
 
 import javax.xml.bind.JAXBException;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
@@ -33,7 +36,12 @@ import org.apache.http.util.EntityUtils;
 import org.junit.Before;
 import org.junit.BeforeClass;
 
+import eu.scape_project.model.BitStream;
+import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.LifecycleState;
+import eu.scape_project.model.LifecycleState.State;
+import eu.scape_project.model.Representation;
 import eu.scape_project.util.ScapeMarshaller;
 
 public class AbstractIT {
@@ -84,4 +92,93 @@ public class AbstractIT {
         assertTrue(id.length() > 0);
         post.releaseConnection();
     }
+
+    /* submit a document for an asynchronous ingest, the body of the response has been consumed */
+    protected HttpResponse queueEntity(HttpEntity body) throws IOException {
+        HttpPost post = new HttpPost(SCAPE_URL + "/entity-async");
+        post.setEntity(body);
+        HttpResponse resp = this.client.execute(post);
+        post.releaseConnection();
+        return resp;
+    }
+
+    protected HttpResponse queueEntity(IntellectualEntity ie) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try {
+            this.marshaller.serialize(ie, sink);
+        } catch (JAXBException e) {
+            throw new IOException(e);
+        }
+        return queueEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size()));
+    }
+
+    /* poll the lifecycle state of an entity for up to a minute until it is reached */
+    protected LifecycleState awaitLifecycleState(String id, State expected) throws Exception {
+        return awaitLifecycleState(id, expected, null);
+    }
+
+    /* poll the lifecycle state of an entity, adding each state polled to seen if it is not null */
+    protected LifecycleState awaitLifecycleState(String id, State expected, List<LifecycleState> seen) throws Exception {
+        LifecycleState state;
+        long start = System.currentTimeMillis();
+        do {
+            HttpGet get = new HttpGet(SCAPE_URL + "/lifecycle/" + id);
+            HttpResponse resp = this.client.execute(get);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            state =
+                    (LifecycleState) this.marshaller.deserialize(resp
+                            .getEntity().getContent());
+            get.releaseConnection();
+            if (seen != null) {
+                seen.add(state);
+            }
+            if (state.getState().equals(expected)) {
+                break;
+            }
+            Thread.sleep(100);
+        } while ((System.currentTimeMillis() - start) < 60000);
+        return state;
+    }
+
+    /* compare the structure and the metadata types of two entities, ignoring the URIs of the files */
+    protected void assertSameEntity(IntellectualEntity expected, IntellectualEntity actual) {
+        assertEquals(expected.getIdentifier(), actual.getIdentifier());
+        assertEquals(type(expected.getDescriptive()), type(actual.getDescriptive()));
+        List<Representation> reps = list(actual.getRepresentations());
+        assertEquals(list(expected.getRepresentations()).size(), reps.size());
+        for (int i = 0; i < reps.size(); i++) {
+            Representation r = list(expected.getRepresentations()).get(i);
+            assertEquals(r.getIdentifier(), reps.get(i).getIdentifier());
+            assertEquals(r.getTitle(), reps.get(i).getTitle());
+            assertEquals(type(r.getTechnical()), type(reps.get(i).getTechnical()));
+            assertEquals(type(r.getSource()), type(reps.get(i).getSource()));
+            assertEquals(type(r.getProvenance()), type(reps.get(i).getProvenance()));
+            assertEquals(type(r.getRights()), type(reps.get(i).getRights()));
+            List<File> files = list(reps.get(i).getFiles());
+            assertEquals(list(r.getFiles()).size(), files.size());
+            for (int j = 0; j < files.size(); j++) {
+                File f = list(r.getFiles()).get(j);
+                assertEquals(f.getIdentifier(), files.get(j).getIdentifier());
+                assertEquals(f.getFilename(), files.get(j).getFilename());
+                assertEquals(f.getMimetype(), files.get(j).getMimetype());
+                assertEquals(type(f.getTechnical()), type(files.get(j).getTechnical()));
+                List<BitStream> bitStreams = list(files.get(j).getBitStreams());
+                assertEquals(list(f.getBitStreams()).size(), bitStreams.size());
+                for (int k = 0; k < bitStreams.size(); k++) {
+                    BitStream bs = list(f.getBitStreams()).get(k);
+                    assertEquals(bs.getIdentifier(), bitStreams.get(k).getIdentifier());
+                    assertEquals(type(bs.getTechnical()), type(bitStreams.get(k).getTechnical()));
+                }
+            }
+        }
+    }
+
+    private static <T> List<T> list(List<T> values) {
+        return values == null ? Collections.<T>emptyList() : values;
+    }
+
+    private static Class<?> type(Object metadata) {
+        return metadata == null ? null : metadata.getClass();
+    }
 }
@@ -0,0 +1,86 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.apache.http.HttpResponse;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.TestUtil;
+
+/**
+ * Checks that asynchronous submissions are rejected once the queue reaches
+ * its high watermark and accepted again when it has been drained. The workers
+ * start late, so that the queue fills up
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class AdmissionControlIT extends AbstractIT {
+
+    @BeforeClass
+    public static void lowerWatermarks() {
+        System.setProperty("scape.async.queue.high", "2");
+        System.setProperty("scape.async.queue.low", "0");
+        System.setProperty("scape.async.retry.after.max", "42");
+        System.setProperty("scape.async.initial.delay", "15000");
+    }
+
+    @AfterClass
+    public static void resetWatermarks() {
+        System.clearProperty("scape.async.queue.high");
+        System.clearProperty("scape.async.queue.low");
+        System.clearProperty("scape.async.retry.after.max");
+        System.clearProperty("scape.async.initial.delay");
+    }
+
+    @Test
+    public void testSubmissionsAreThrottled() throws Exception {
+        HttpResponse resp = queueEntity(TestUtil.createTestEntity("entity-admission-1"));
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals("1", resp.getFirstHeader("X-Queue-Depth").getValue());
+
+        resp = queueEntity(TestUtil.createTestEntity("entity-admission-2"));
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals("2", resp.getFirstHeader("X-Queue-Depth").getValue());
+
+        /* nothing has been ingested yet, so the client is asked to wait as long as allowed */
+        resp = queueEntity(TestUtil.createTestEntity("entity-admission-3"));
+        assertEquals(429, resp.getStatusLine().getStatusCode());
+        assertNotNull(resp.getFirstHeader("Retry-After"));
+        assertEquals("42", resp.getFirstHeader("Retry-After").getValue());
+        assertEquals("2", resp.getFirstHeader("X-Queue-Depth").getValue());
+
+        /* the submission is accepted once the workers have drained the queue */
+        long start = System.currentTimeMillis();
+        do {
+            Thread.sleep(500);
+            resp = queueEntity(TestUtil.createTestEntity("entity-admission-3"));
+        } while (resp.getStatusLine().getStatusCode() == 429 &&
+                (System.currentTimeMillis() - start) < 60000);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+    }
+}
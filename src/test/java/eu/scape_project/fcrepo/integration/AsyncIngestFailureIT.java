@@ -0,0 +1,146 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.File;
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.LifecycleState;
+import eu.scape_project.model.LifecycleState.State;
+import eu.scape_project.model.Representation;
+import eu.scape_project.model.TestUtil;
+
+/**
+ * Checks the retries of failed asynchronous ingests, the dead letter node and
+ * the redrive of dead letters. Items are tried twice with a backoff of one to
+ * two seconds
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class AsyncIngestFailureIT extends AbstractIT {
+
+    @BeforeClass
+    public static void configureRetries() {
+        System.setProperty("scape.async.retry.attempts", "2");
+        System.setProperty("scape.async.retry.backoff", "2000");
+        System.setProperty("scape.async.retry.backoff.max", "2000");
+    }
+
+    @AfterClass
+    public static void resetRetries() {
+        System.clearProperty("scape.async.retry.attempts");
+        System.clearProperty("scape.async.retry.backoff");
+        System.clearProperty("scape.async.retry.backoff.max");
+    }
+
+    @Test
+    public void testMalformedDocumentIsDeadLettered() throws Exception {
+        /* the id can be read from the header, but the document is not well formed */
+        HttpResponse resp = queueEntity(new StringEntity("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" OBJID=\"entity-failed-1\">"
+                + "<mets:dmdSec ID=\"DMD-1\"></mets:mets>"));
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+
+        List<LifecycleState> seen = new ArrayList<>();
+        LifecycleState state = awaitLifecycleState("entity-failed-1", State.INGEST_FAILED, seen);
+        assertFalse("a malformed document must not be retried", retried(seen));
+        assertEquals(State.INGEST_FAILED, state.getState());
+        assertTrue(state.getDetails().length() > 0);
+    }
+
+    @Test
+    public void testUnreachableFileIsRetriedAndRedriven() throws Exception {
+        java.io.File missing = java.io.File.createTempFile("scape-retry-", ".png");
+        missing.delete();
+        missing.deleteOnExit();
+
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-retry-1");
+        Representation rep = ie.getRepresentations().get(0);
+        File f = new File.Builder(rep.getFiles().get(0)).uri(missing.toURI()).build();
+        IntellectualEntity broken =
+                new IntellectualEntity.Builder(ie).representations(
+                        Arrays.asList(new Representation.Builder(rep).files(Arrays.asList(f)).build())).build();
+        HttpResponse resp = queueEntity(broken);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+
+        /* the failed download is retried before the item is given up */
+        List<LifecycleState> seen = new ArrayList<>();
+        LifecycleState state = awaitLifecycleState("entity-retry-1", State.INGEST_FAILED, seen);
+        assertTrue("the item has not been waiting for a retry", retried(seen));
+        assertEquals(State.INGEST_FAILED, state.getState());
+        assertTrue(state.getDetails(), state.getDetails().contains("FileNotFoundException"));
+
+        /* once the file is available the redriven item is ingested */
+        FileUtils.copyInputStreamToFile(this.getClass().getClassLoader().getResourceAsStream("scape_logo.png"), missing);
+        HttpPost post = new HttpPost(SCAPE_URL + "/entity-async/redrive");
+        resp = this.client.execute(post);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertTrue(Arrays.asList(EntityUtils.toString(resp.getEntity()).split("\n")).contains("entity-retry-1"));
+        post.releaseConnection();
+
+        state = awaitLifecycleState("entity-retry-1", State.INGESTED);
+        assertEquals(State.INGESTED, state.getState());
+
+        HttpGet get = new HttpGet(SCAPE_URL + "/file/entity-retry-1/" + rep.getIdentifier().getValue() + "/"
+                + f.getIdentifier().getValue());
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        IOUtils.copy(resp.getEntity().getContent(), sink);
+        get.releaseConnection();
+        assertArrayEquals(FileUtils.readFileToByteArray(missing), sink.toByteArray());
+    }
+
+    /*
+     * an item waiting for a retry is reported as INGESTING with the reason of
+     * the last failure
+     */
+    private static boolean retried(List<LifecycleState> seen) {
+        for (LifecycleState state : seen) {
+            if (state.getState() == State.INGESTING && state.getDetails() != null && state.getDetails().length() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
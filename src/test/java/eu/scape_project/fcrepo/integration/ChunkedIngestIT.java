@@ -0,0 +1,81 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.LifecycleState.State;
+import eu.scape_project.model.TestUtil;
+
+/**
+ * Runs the entity tests with the entities being saved in chunks of two files
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class ChunkedIngestIT extends IntellectualEntitiesIT {
+
+    @BeforeClass
+    public static void enableChunks() {
+        System.setProperty("scape.fcrepo.ingest.chunk.size", "2");
+    }
+
+    @AfterClass
+    public static void disableChunks() {
+        System.clearProperty("scape.fcrepo.ingest.chunk.size");
+    }
+
+    @Test
+    public void testQueueReplacesUnpublishedEntity() throws Exception {
+        /*
+         * an entity node without a current version is what a chunked ingest
+         * leaves behind when the JVM dies before the last save
+         */
+        HttpPut put = new HttpPut(FEDORA_URL + "/objects/scape/entities/entity-chunk-orphan");
+        HttpResponse resp = this.client.execute(put);
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        put.releaseConnection();
+
+        IntellectualEntity ie = TestUtil.createTestEntityWithMultipleRepresentations("entity-chunk-orphan");
+        resp = queueEntity(ie);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals(State.INGESTED, awaitLifecycleState("entity-chunk-orphan", State.INGESTED).getState());
+
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-chunk-orphan");
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        IntellectualEntity fetched =
+                this.marshaller.deserialize(IntellectualEntity.class, resp
+                        .getEntity().getContent());
+        get.releaseConnection();
+        assertEquals(ie.getIdentifier(), fetched.getIdentifier());
+        assertEquals(ie.getRepresentations().size(), fetched.getRepresentations().size());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.StringEntity;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.LifecycleState.State;
+import eu.scape_project.model.TestUtil;
+
+/**
+ * Checks that a malformed item of a group commit does not keep the other
+ * items of the group from being ingested. The workers start late, so that all
+ * the items are queued when the first batch is claimed
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class GroupCommitIT extends AbstractIT {
+
+    @BeforeClass
+    public static void enableGroupCommits() {
+        System.setProperty("scape.async.group.commit.size", "4");
+        System.setProperty("scape.async.initial.delay", "15000");
+    }
+
+    @AfterClass
+    public static void disableGroupCommits() {
+        System.clearProperty("scape.async.group.commit.size");
+        System.clearProperty("scape.async.initial.delay");
+    }
+
+    @Test
+    public void testMalformedItemOfGroupIsDeadLettered() throws Exception {
+        assertEquals(200, queueEntity(TestUtil.createTestEntity("entity-group-1")).getStatusLine().getStatusCode());
+        assertEquals(200, queueEntity(new StringEntity("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" OBJID=\"entity-group-bad\">"
+                + "<mets:dmdSec ID=\"DMD-1\"></mets:mets>")).getStatusLine().getStatusCode());
+        assertEquals(200, queueEntity(TestUtil.createTestEntity("entity-group-2")).getStatusLine().getStatusCode());
+        assertEquals(200, queueEntity(TestUtil.createTestEntity("entity-group-3")).getStatusLine().getStatusCode());
+
+        assertEquals(State.INGESTED, awaitLifecycleState("entity-group-1", State.INGESTED).getState());
+        assertEquals(State.INGESTED, awaitLifecycleState("entity-group-2", State.INGESTED).getState());
+        assertEquals(State.INGESTED, awaitLifecycleState("entity-group-3", State.INGESTED).getState());
+        assertEquals(State.INGEST_FAILED, awaitLifecycleState("entity-group-bad", State.INGEST_FAILED).getState());
+
+        for (int i = 1; i <= 3; i++) {
+            HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-group-" + i);
+            HttpResponse resp = this.client.execute(get);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            get.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.Representation;
+
+/**
+ * Measures the ingest throughput and the update latency of large METS
+ * documents. The ONB examples reference their files relative to the package,
+ * so they can only be ingested using referenced content. The benchmarks are
+ * run using the benchmark profile
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/referenced-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class IngestBenchmarkIT extends AbstractIT {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestBenchmarkIT.class);
+
+    private static final int WARM_UP = 1;
+
+    private static final int RUNS = 5;
+
+    @Test
+    public void testIngestLargeMets() throws Exception {
+        /*
+         * the per file cost of ingesting the large document is compared to the
+         * one of the small document, which grows with the number of files if
+         * the properties of a node's siblings are written again for every node
+         */
+        final long small = ingestPerFile("ONB_mets_small.xml", "bench-small-");
+        final long large = ingestPerFile("ONB_mets_example.xml", "bench-large-");
+        LOG.info("ingesting a file of the large document took {} us, a file of the small document {} us (ratio {})", large, small,
+                String.format("%.2f", (double) large / Math.max(1, small)));
+    }
+
+    /* ingest a METS document several times and return the time per file in microseconds */
+    private long ingestPerFile(String resource, String prefix) throws Exception {
+        final String mets = IOUtils.toString(this.getClass().getClassLoader().getResourceAsStream(resource), "UTF-8");
+        final int numFiles = mets.split("<METS:file ").length - 1;
+
+        for (int i = 0; i < WARM_UP; i++) {
+            postMets(mets, prefix + "warmup-" + i);
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            postMets(mets, prefix + i);
+        }
+        final long duration = (System.nanoTime() - start) / 1000000L;
+
+        LOG.info("ingested {} entities of {} with {} files each in {} ms ({} ms per entity, {} files/s)", RUNS, resource, numFiles, duration,
+                duration / RUNS, (RUNS * numFiles * 1000L) / Math.max(1, duration));
+        return (duration * 1000L) / (RUNS * numFiles);
+    }
+
+    @Test
+    public void testUpdateLargeMets() throws Exception {
+        final String mets = IOUtils.toString(this.getClass().getClassLoader().getResourceAsStream("ONB_mets_example.xml"), "UTF-8");
+        postMets(mets, "bench-update");
+
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/bench-update");
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        final IntellectualEntity ie = this.marshaller.deserialize(IntellectualEntity.class, resp.getEntity().getContent());
+        get.releaseConnection();
+        final Representation rep = ie.getRepresentations().get(0);
+
+        /*
+         * the entity is changed by replacing the whole entity, by replacing
+         * only the representation and by replacing only a metadata record, so
+         * that the object level updates can be compared to the full entity
+         * updates they replace
+         */
+        for (int i = 0; i < WARM_UP; i++) {
+            putEntity(ie, rep, "warm-up " + i);
+            putRepresentation(rep, "warm-up " + i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            putEntity(ie, rep, "update " + i);
+        }
+        final long entity = (System.nanoTime() - start) / (RUNS * 1000000L);
+        LOG.info("updated an entity with {} files {} times ({} ms per update)", rep.getFiles().size(), RUNS, entity);
+
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            putRepresentation(rep, "update " + i);
+        }
+        final long representation = (System.nanoTime() - start) / (RUNS * 1000000L);
+        LOG.info("updated a representation with {} files {} times ({} ms per update)", rep.getFiles().size(), RUNS, representation);
+
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            HttpPut put = new HttpPut(SCAPE_URL + "/metadata/bench-update/DESCRIPTIVE");
+            put.setEntity(new StringEntity("<dc:dublin-core xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:title>update " + i
+                    + "</dc:title></dc:dublin-core>", ContentType.TEXT_XML));
+            resp = this.client.execute(put);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            put.releaseConnection();
+        }
+        final long metadata = (System.nanoTime() - start) / (RUNS * 1000000L);
+        LOG.info("updated the descriptive metadata {} times ({} ms per update)", RUNS, metadata);
+
+        LOG.info("an entity update took {} ms, a representation update {} ms and a metadata update {} ms", entity, representation, metadata);
+    }
+
+    private void putEntity(IntellectualEntity ie, Representation rep, String title) throws Exception {
+        HttpPut put = new HttpPut(SCAPE_URL + "/entity/bench-update");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        List<Representation> reps = new ArrayList<>(ie.getRepresentations());
+        reps.set(0, new Representation.Builder(rep).title(title).build());
+        this.marshaller.serialize(new IntellectualEntity.Builder(ie).representations(reps).build(), sink);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink.toByteArray()), sink.size(), ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(put);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        put.releaseConnection();
+    }
+
+    private void putRepresentation(Representation rep, String title) throws Exception {
+        HttpPut put = new HttpPut(SCAPE_URL + "/representation/bench-update/" + rep.getIdentifier().getValue());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(new Representation.Builder(rep).title(title).build(), sink);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink.toByteArray()), sink.size(), ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(put);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        put.releaseConnection();
+    }
+
+    private void postMets(String mets, String id) throws Exception {
+        HttpPost post = new HttpPost(SCAPE_URL + "/entity");
+        post.setEntity(new StringEntity(mets.replace("OBJID=\"ONB_Z35072001\"", "OBJID=\"" + id + "\""), ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(post);
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        post.releaseConnection();
+    }
+}
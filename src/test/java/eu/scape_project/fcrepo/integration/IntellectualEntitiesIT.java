@@ -345,6 +345,72 @@ public class IntellectualEntitiesIT extends AbstractIT {
         assertEquals(State.INGESTED, state.getState());
     }
 
+    @Test
+    public void testIngestAsyncMultipleEntities() throws Exception {
+        final int count = 5;
+        for (int i = 0; i < count; i++) {
+            HttpResponse resp = queueEntity(TestUtil.createTestEntity("entity-async-" + i));
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+        }
+
+        /* wait for all the entities to be ingested by the workers */
+        for (int i = 0; i < count; i++) {
+            assertEquals(State.INGESTED, awaitLifecycleState("entity-async-" + i, State.INGESTED).getState());
+        }
+    }
+
+    @Test
+    public void testIngestBulk() throws Exception {
+        final IntellectualEntityCollection coll =
+                new IntellectualEntityCollection(Arrays.asList(TestUtil
+                        .createTestEntity("entity-bulk-1"), TestUtil
+                        .createTestEntity("entity-bulk-2"), TestUtil
+                        .createTestEntity("entity-bulk-3")));
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(coll, sink);
+
+        HttpPost post = new HttpPost(SCAPE_URL + "/entity/bulk");
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size(), ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(post);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        String[] results = EntityUtils.toString(resp.getEntity()).split("\n");
+        post.releaseConnection();
+        assertEquals(3, results.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("entity-bulk-" + (i + 1) + "\tCREATED", results[i]);
+            HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-bulk-" + (i + 1));
+            resp = this.client.execute(get);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            get.releaseConnection();
+        }
+    }
+
+    @Test
+    public void testIngestAsyncLane() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-async-lane");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(ie, sink);
+
+        /* unknown lanes are rejected */
+        HttpPost post = new HttpPost(SCAPE_URL + "/entity-async?lane=unknown");
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size()));
+        HttpResponse resp = this.client.execute(post);
+        assertEquals(400, resp.getStatusLine().getStatusCode());
+        post.releaseConnection();
+
+        post = new HttpPost(SCAPE_URL + "/entity-async?lane=urgent");
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size()));
+        resp = this.client.execute(post);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertNotNull(resp.getFirstHeader("X-Queue-Depth"));
+        post.releaseConnection();
+
+        assertEquals(State.INGESTED, awaitLifecycleState("entity-async-lane", State.INGESTED).getState());
+    }
+
     @Test
     public void testIngestAndSearchRepresentation() throws Exception {
         IntellectualEntity ie1 = TestUtil.createTestEntity("entity-13");
@@ -472,6 +538,63 @@ public class IntellectualEntitiesIT extends AbstractIT {
                 .getContent().get(0));
     }
 
+    @Test
+    public void testIngestAndUpdateSharesUnchangedRepresentations() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-shared");
+        this.postEntity(ie);
+
+        /* fetch the entity, so that the files point to the stored binaries */
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-shared");
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        IntellectualEntity fetched =
+                this.marshaller.deserialize(IntellectualEntity.class, resp
+                        .getEntity().getContent());
+        get.releaseConnection();
+
+        org.purl.dc.elements._1.ObjectFactory dcFac =
+                new org.purl.dc.elements._1.ObjectFactory();
+        ElementContainer cnt = dcFac.createElementContainer();
+        SimpleLiteral lit_title = new SimpleLiteral();
+        lit_title.getContent().add("Object Updated");
+        cnt.getAny().add(dcFac.createTitle(lit_title));
+        IntellectualEntity update =
+                new IntellectualEntity.Builder(fetched).descriptive(cnt).build();
+
+        HttpPut put = new HttpPut(SCAPE_URL + "/entity/entity-shared");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(update, sink);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size(), ContentType.TEXT_XML));
+        resp = this.client.execute(put);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        put.releaseConnection();
+
+        /* the unchanged representation has not been copied into the new version */
+        Representation rep = ie.getRepresentations().get(0);
+        get =
+                new HttpGet(FEDORA_URL + "/objects/scape/entities/entity-shared/version-2/" +
+                        rep.getIdentifier().getValue());
+        resp = this.client.execute(get);
+        assertEquals(404, resp.getStatusLine().getStatusCode());
+        get.releaseConnection();
+
+        /* but the binary is still available from the new version */
+        File f = rep.getFiles().get(0);
+        get =
+                new HttpGet(SCAPE_URL + "/file/entity-shared/" +
+                        rep.getIdentifier().getValue() + "/" +
+                        f.getIdentifier().getValue());
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        sink = new ByteArrayOutputStream();
+        IOUtils.copy(resp.getEntity().getContent(), sink);
+        get.releaseConnection();
+        ByteArrayOutputStream orig = new ByteArrayOutputStream();
+        IOUtils.copy(this.getClass().getClassLoader().getResourceAsStream("scape_logo.png"), orig);
+        assertArrayEquals(orig.toByteArray(), sink.toByteArray());
+    }
+
     @Test
     public void testIngestAndUpdateRepresentation() throws Exception {
         IntellectualEntity ie1 = TestUtil.createTestEntity("entity-18");
@@ -545,6 +668,78 @@ public class IntellectualEntitiesIT extends AbstractIT {
 
     }
 
+    @Test
+    public void testIngestAndUpdateReadsOwnWrites() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-28");
+        this.postEntity(ie);
+        Representation rep = ie.getRepresentations().get(0);
+
+        org.purl.dc.elements._1.ObjectFactory dcFac =
+                new org.purl.dc.elements._1.ObjectFactory();
+        for (int i = 1; i <= 3; i++) {
+            /* read the entity, so that its current version is cached */
+            HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-28");
+            HttpResponse resp = this.client.execute(get);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            get.releaseConnection();
+
+            ElementContainer cnt = dcFac.createElementContainer();
+            SimpleLiteral lit_title = new SimpleLiteral();
+            lit_title.getContent().add("Object round " + i);
+            cnt.getAny().add(dcFac.createTitle(lit_title));
+            HttpPut put = new HttpPut(SCAPE_URL + "/metadata/entity-28/DESCRIPTIVE");
+            ByteArrayOutputStream sink = new ByteArrayOutputStream();
+            this.marshaller.serialize(cnt, sink);
+            put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                    .toByteArray()), sink.size(), ContentType.TEXT_XML));
+            resp = this.client.execute(put);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            put.releaseConnection();
+
+            /* the update is visible right away */
+            get = new HttpGet(SCAPE_URL + "/metadata/entity-28/DESCRIPTIVE");
+            resp = this.client.execute(get);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            ElementContainer dc =
+                    (ElementContainer) this.marshaller.deserialize(resp.getEntity()
+                            .getContent());
+            get.releaseConnection();
+            assertEquals("Object round " + i, dc.getAny().get(0).getValue()
+                    .getContent().get(0));
+
+            Representation r = new Representation.Builder(rep).title("title round " + i).build();
+            put = new HttpPut(SCAPE_URL + "/representation/entity-28/" + r.getIdentifier().getValue());
+            sink = new ByteArrayOutputStream();
+            this.marshaller.serialize(r, sink);
+            put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                    .toByteArray()), sink.size(), ContentType.TEXT_XML));
+            resp = this.client.execute(put);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            put.releaseConnection();
+
+            get = new HttpGet(SCAPE_URL + "/representation/entity-28/" + r.getIdentifier().getValue());
+            resp = this.client.execute(get);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            Representation fetchedRep =
+                    this.marshaller.deserialize(Representation.class, resp
+                            .getEntity().getContent());
+            get.releaseConnection();
+            assertEquals("title round " + i, fetchedRep.getTitle());
+
+            get = new HttpGet(SCAPE_URL + "/entity/entity-28");
+            resp = this.client.execute(get);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            IntellectualEntity fetched =
+                    this.marshaller.deserialize(IntellectualEntity.class, resp
+                            .getEntity().getContent());
+            get.releaseConnection();
+            dc = (ElementContainer) fetched.getDescriptive();
+            assertEquals("Object round " + i, dc.getAny().get(0).getValue()
+                    .getContent().get(0));
+            assertEquals("title round " + i, fetched.getRepresentations().get(0).getTitle());
+        }
+    }
+
     @Test
     public void testIngestAndUpdateRepresentationMetadata() throws Exception {
         IntellectualEntity ie1 = TestUtil.createTestEntity("entity-20");
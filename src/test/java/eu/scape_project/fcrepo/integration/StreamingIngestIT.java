@@ -0,0 +1,155 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.purl.dc.elements._1.ElementContainer;
+import org.purl.dc.elements._1.SimpleLiteral;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.File;
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.Representation;
+import eu.scape_project.model.TestUtil;
+
+/**
+ * Runs the entity tests with METS documents being read by the streaming
+ * ingest instead of the JAX-B marshaller
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class StreamingIngestIT extends IntellectualEntitiesIT {
+
+    @BeforeClass
+    public static void enableStreaming() {
+        System.setProperty("scape.fcrepo.ingest.streaming", "true");
+    }
+
+    @AfterClass
+    public static void disableStreaming() {
+        System.clearProperty("scape.fcrepo.ingest.streaming");
+    }
+
+    @Test
+    public void testStreamingIngestMatchesDeserializedEntity() throws Exception {
+        IntellectualEntity ie =
+                TestUtil.createTestEntityWithMultipleRepresentations("entity-streaming-1");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(ie, sink);
+
+        HttpPost post = new HttpPost(SCAPE_URL + "/entity");
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size(), ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(post);
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        assertEquals("entity-streaming-1", EntityUtils.toString(resp.getEntity()));
+        post.releaseConnection();
+
+        /* the entity the marshaller reads from the same document */
+        IntellectualEntity deserialized =
+                this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(sink.toByteArray()));
+
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-streaming-1");
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        IntellectualEntity fetched =
+                this.marshaller.deserialize(IntellectualEntity.class, resp
+                        .getEntity().getContent());
+        get.releaseConnection();
+        assertSameEntity(deserialized, fetched);
+    }
+
+    /*
+     * the streaming ingest does not share unchanged representations with the
+     * previous version, but copies them
+     */
+    @Override
+    @Test
+    public void testIngestAndUpdateSharesUnchangedRepresentations() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-shared");
+        this.postEntity(ie);
+
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-shared");
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        IntellectualEntity fetched =
+                this.marshaller.deserialize(IntellectualEntity.class, resp
+                        .getEntity().getContent());
+        get.releaseConnection();
+
+        org.purl.dc.elements._1.ObjectFactory dcFac =
+                new org.purl.dc.elements._1.ObjectFactory();
+        ElementContainer cnt = dcFac.createElementContainer();
+        SimpleLiteral lit_title = new SimpleLiteral();
+        lit_title.getContent().add("Object Updated");
+        cnt.getAny().add(dcFac.createTitle(lit_title));
+        IntellectualEntity update =
+                new IntellectualEntity.Builder(fetched).descriptive(cnt).build();
+
+        HttpPut put = new HttpPut(SCAPE_URL + "/entity/entity-shared");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(update, sink);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size(), ContentType.TEXT_XML));
+        resp = this.client.execute(put);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        put.releaseConnection();
+
+        Representation rep = ie.getRepresentations().get(0);
+        get =
+                new HttpGet(FEDORA_URL + "/objects/scape/entities/entity-shared/version-2/" +
+                        rep.getIdentifier().getValue());
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        get.releaseConnection();
+
+        File f = rep.getFiles().get(0);
+        get =
+                new HttpGet(SCAPE_URL + "/file/entity-shared/" +
+                        rep.getIdentifier().getValue() + "/" +
+                        f.getIdentifier().getValue());
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        sink = new ByteArrayOutputStream();
+        IOUtils.copy(resp.getEntity().getContent(), sink);
+        get.releaseConnection();
+        ByteArrayOutputStream orig = new ByteArrayOutputStream();
+        IOUtils.copy(this.getClass().getClassLoader().getResourceAsStream("scape_logo.png"), orig);
+        assertArrayEquals(orig.toByteArray(), sink.toByteArray());
+    }
+}
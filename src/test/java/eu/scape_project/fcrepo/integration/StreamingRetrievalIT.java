@@ -0,0 +1,151 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.purl.dc.elements._1.ElementContainer;
+import org.purl.dc.elements._1.SimpleLiteral;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.File;
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.Representation;
+import eu.scape_project.model.TestUtil;
+
+/**
+ * Checks that the METS documents written while an entity is read from the
+ * repository describe the same entity as the ones serialized by the JAX-B
+ * marshaller
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class StreamingRetrievalIT extends AbstractIT {
+
+    @BeforeClass
+    public static void enableStreaming() {
+        System.setProperty("scape.fcrepo.retrieve.streaming", "true");
+    }
+
+    @AfterClass
+    public static void disableStreaming() {
+        System.clearProperty("scape.fcrepo.retrieve.streaming");
+    }
+
+    @Test
+    public void testRetrieveCurrentAndDistinctVersion() throws Exception {
+        IntellectualEntity ie1 =
+                TestUtil.createTestEntityWithMultipleRepresentations("entity-stream-1");
+        this.postEntity(ie1);
+        assertSameEntity(ie1, fetchEntity("entity-stream-1"));
+
+        IntellectualEntity ie2 =
+                new IntellectualEntity.Builder(ie1).descriptive(title("Object Updated")).build();
+        putEntity(ie2);
+
+        IntellectualEntity current = fetchEntity("entity-stream-1");
+        assertSameEntity(ie2, current);
+        assertEquals("Object Updated", title(current));
+
+        IntellectualEntity first = fetchEntity("entity-stream-1/1");
+        assertSameEntity(ie1, first);
+        assertEquals(title(ie1), title(first));
+        assertSameEntity(ie2, fetchEntity("entity-stream-1/2"));
+    }
+
+    @Test
+    public void testRetrieveSharedRepresentations() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-stream-shared");
+        this.postEntity(ie);
+
+        /* an update using the connector's file URIs shares the representations */
+        IntellectualEntity update =
+                new IntellectualEntity.Builder(fetchEntity("entity-stream-shared")).descriptive(title("Object Updated")).build();
+        putEntity(update);
+
+        IntellectualEntity fetched = fetchEntity("entity-stream-shared/2");
+        assertSameEntity(update, fetched);
+        assertSameEntity(ie, fetchEntity("entity-stream-shared/1"));
+
+        /* the file URI written for a shared file resolves to the binary */
+        Representation rep = fetched.getRepresentations().get(0);
+        File f = rep.getFiles().get(0);
+        HttpGet get = new HttpGet(f.getUri());
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        IOUtils.copy(resp.getEntity().getContent(), sink);
+        get.releaseConnection();
+        ByteArrayOutputStream orig = new ByteArrayOutputStream();
+        IOUtils.copy(this.getClass().getClassLoader().getResourceAsStream("scape_logo.png"), orig);
+        assertArrayEquals(orig.toByteArray(), sink.toByteArray());
+    }
+
+    private IntellectualEntity fetchEntity(String path) throws Exception {
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/" + path);
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        IntellectualEntity fetched =
+                this.marshaller.deserialize(IntellectualEntity.class, resp
+                        .getEntity().getContent());
+        get.releaseConnection();
+        return fetched;
+    }
+
+    private void putEntity(IntellectualEntity ie) throws Exception {
+        HttpPut put = new HttpPut(SCAPE_URL + "/entity/" + ie.getIdentifier().getValue());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(ie, sink);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size(), ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(put);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        put.releaseConnection();
+    }
+
+    private static ElementContainer title(String title) {
+        org.purl.dc.elements._1.ObjectFactory dcFac =
+                new org.purl.dc.elements._1.ObjectFactory();
+        ElementContainer cnt = dcFac.createElementContainer();
+        SimpleLiteral lit_title = new SimpleLiteral();
+        lit_title.getContent().add(title);
+        cnt.getAny().add(dcFac.createTitle(lit_title));
+        return cnt;
+    }
+
+    private static String title(IntellectualEntity ie) {
+        return ((ElementContainer) ie.getDescriptive()).getAny().get(0).getValue().getContent().get(0);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.fcrepo.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.purl.dc.elements._1.ElementContainer;
+import org.purl.dc.elements._1.SimpleLiteral;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.codahale.metrics.MetricRegistry;
+
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.TestUtil;
+import eu.scape_project.service.ConnectorService;
+import eu.scape_project.util.ConnectorMetrics;
+
+/**
+ * Checks the hits and misses of the version cache using the metrics published
+ * via JMX, and that an update is visible as soon as it has been saved
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class VersionCacheIT extends AbstractIT {
+
+    @Test
+    public void testCachedVersionsAndUpdate() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-cache-1");
+        this.postEntity(ie);
+
+        /* the first read assembles the version, the second one is served from the cache */
+        long hits = cacheMetric("hits");
+        long misses = cacheMetric("misses");
+        assertEquals("Object 1", title(fetchEntity("entity-cache-1")));
+        assertEquals(hits, cacheMetric("hits"));
+        assertEquals(misses + 1, cacheMetric("misses"));
+        assertEquals("Object 1", title(fetchEntity("entity-cache-1")));
+        assertEquals(hits + 1, cacheMetric("hits"));
+
+        /* the explicit version number resolves to the same cached version */
+        assertEquals("Object 1", title(fetchEntity("entity-cache-1/1")));
+        assertEquals(hits + 2, cacheMetric("hits"));
+        assertEquals(misses + 1, cacheMetric("misses"));
+
+        /* an update is read from the new version instead of the cached one */
+        org.purl.dc.elements._1.ObjectFactory dcFac =
+                new org.purl.dc.elements._1.ObjectFactory();
+        ElementContainer cnt = dcFac.createElementContainer();
+        SimpleLiteral lit_title = new SimpleLiteral();
+        lit_title.getContent().add("Object Updated");
+        cnt.getAny().add(dcFac.createTitle(lit_title));
+        HttpPut put = new HttpPut(SCAPE_URL + "/entity/entity-cache-1");
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(new IntellectualEntity.Builder(ie).descriptive(cnt).build(), sink);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink
+                .toByteArray()), sink.size(), ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(put);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        put.releaseConnection();
+
+        assertEquals("Object Updated", title(fetchEntity("entity-cache-1")));
+        assertEquals(misses + 2, cacheMetric("misses"));
+        assertEquals("Object Updated", title(fetchEntity("entity-cache-1/2")));
+        assertEquals(hits + 3, cacheMetric("hits"));
+
+        /* the previous version is still cached */
+        assertEquals("Object 1", title(fetchEntity("entity-cache-1/1")));
+        assertEquals(hits + 4, cacheMetric("hits"));
+        assertEquals(misses + 2, cacheMetric("misses"));
+    }
+
+    private IntellectualEntity fetchEntity(String path) throws Exception {
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/" + path);
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        IntellectualEntity fetched =
+                this.marshaller.deserialize(IntellectualEntity.class, resp
+                        .getEntity().getContent());
+        get.releaseConnection();
+        return fetched;
+    }
+
+    private static String title(IntellectualEntity ie) {
+        return ((ElementContainer) ie.getDescriptive()).getAny().get(0).getValue().getContent().get(0);
+    }
+
+    /* read a gauge of the version cache from the metrics published via JMX */
+    private static long cacheMetric(String gauge) throws Exception {
+        ObjectName name =
+                new ObjectName(ConnectorMetrics.JMX_DOMAIN, "name", MetricRegistry.name(ConnectorService.class, "version-cache", gauge));
+        return ((Number) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Value")).longValue();
+    }
+}